@@ -0,0 +1,115 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import org.apache.shiro.authc.AuthenticationException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the validation of ces tokens with one, four and as many threads as there are processors, so that
+ * contention on the validator becomes visible. The number of configured service accounts should not change
+ * the cost of a validation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CesAccessValidatorBenchmark {
+
+  @Param({"1", "100", "1000"})
+  public int accounts;
+
+  private CesAccessValidator validator;
+
+  @Setup
+  public void setUp() {
+    List<ServiceAccount> serviceAccounts = new ArrayList<>();
+    serviceAccounts.add(ServiceAccounts.createDefault("token"));
+    for (int i = 1; i < accounts; ++i) {
+      serviceAccounts.add(new ServiceAccount("account-" + i, "Account " + i, "token-" + i, ServiceAccounts.DEFAULT_PERMISSIONS));
+    }
+    validator = new CesAccessValidator(
+      new StaticTokenSource("secret"),
+      new ServiceAccounts(serviceAccounts),
+      new CesConfiguration(name -> null),
+      Clock.systemUTC(),
+      CesMetrics.inMemory()
+    );
+    validator.startLoading().join();
+  }
+
+  @TearDown
+  public void tearDown() {
+    validator.close();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public void checkToken() {
+    validator.checkToken("secret");
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void checkTokenWithFourThreads() {
+    validator.checkToken("secret");
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public void checkTokenWithMaxThreads() {
+    validator.checkToken("secret");
+  }
+
+  @Benchmark
+  @Threads(1)
+  public boolean checkInvalidToken() {
+    try {
+      validator.checkToken("invalid");
+      return true;
+    } catch (AuthenticationException e) {
+      return false;
+    }
+  }
+}
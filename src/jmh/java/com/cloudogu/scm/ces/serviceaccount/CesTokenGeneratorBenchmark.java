@@ -0,0 +1,83 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the creation of ces tokens from requests with and without the ces header, and the rejection of
+ * tokens, which have failed too often.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CesTokenGeneratorBenchmark {
+
+  private CesTokenGenerator generator;
+  private BenchmarkRequest cesRequest;
+  private BenchmarkRequest otherRequest;
+  private BenchmarkRequest throttledRequest;
+
+  @Setup
+  public void setUp() {
+    FailureThrottle throttle = new FailureThrottle(new CesConfiguration(name -> null));
+    generator = new CesTokenGenerator("X-CES-Token", CesMetrics.inMemory(), TrustedNetworks.localhost(), throttle);
+    cesRequest = new BenchmarkRequest("127.0.0.1").withHeader("X-CES-Token", "secret");
+    otherRequest = new BenchmarkRequest("127.0.0.1");
+    throttledRequest = new BenchmarkRequest("127.0.0.1").withHeader("X-CES-Token", "wrong");
+    for (int i = 0; i < 100; ++i) {
+      throttle.recordFailure("127.0.0.1", "wrong");
+    }
+  }
+
+  @Benchmark
+  public CesToken createToken() {
+    return generator.createToken(cesRequest);
+  }
+
+  @Benchmark
+  public CesToken createTokenWithoutHeader() {
+    return generator.createToken(otherRequest);
+  }
+
+  @Benchmark
+  public CesToken createThrottledToken() {
+    return generator.createToken(throttledRequest);
+  }
+}
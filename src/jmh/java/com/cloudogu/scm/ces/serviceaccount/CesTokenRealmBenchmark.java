@@ -0,0 +1,121 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import org.apache.shiro.authc.AuthenticationInfo;
+import org.apache.shiro.authc.SimpleAuthenticationInfo;
+import org.apache.shiro.mgt.DefaultSecurityManager;
+import org.apache.shiro.subject.PrincipalCollection;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import sonia.scm.user.User;
+
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+
+import static com.cloudogu.scm.ces.serviceaccount.CesTokenRealm.REALM;
+
+/**
+ * Measures authentication and authorization with the ces realm, both directly and through a Shiro security
+ * manager. Run with {@code gradle jmh}, the gc profiler reports the allocation per operation as
+ * {@code gc.alloc.rate.norm}. The {@code legacy} benchmark builds the authentication info for each request
+ * like earlier versions of the realm did.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CesTokenRealmBenchmark {
+
+  private CesAccessValidator validator;
+  private CesTokenRealm realm;
+  private CesToken token;
+  private DefaultSecurityManager securityManager;
+  private PrincipalCollection principals;
+  private ServiceAccount legacyAccount;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    validator = new CesAccessValidator(
+      new StaticTokenSource("secret"), "token", new CesConfiguration(name -> null), Clock.systemUTC()
+    );
+    validator.startLoading().join();
+    realm = new CesTokenRealm(
+      validator, CesMetrics.inMemory(), TrustedNetworks.localhost(), new FailureThrottle(new CesConfiguration(name -> null))
+    );
+    token = new CesToken("secret", "127.0.0.1");
+    securityManager = new DefaultSecurityManager(realm);
+    principals = securityManager.authenticate(token).getPrincipals();
+    legacyAccount = ServiceAccounts.createDefault("token");
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    securityManager.destroy();
+    validator.close();
+  }
+
+  @Benchmark
+  public AuthenticationInfo authenticateWithSecurityManager() {
+    return securityManager.authenticate(token);
+  }
+
+  @Benchmark
+  public boolean isPermittedWithSecurityManager() {
+    return securityManager.isPermitted(principals, "user:read:trillian");
+  }
+
+  @Benchmark
+  public boolean isNotPermittedWithSecurityManager() {
+    return securityManager.isPermitted(principals, "repository:read:heartOfGold");
+  }
+
+  @Benchmark
+  public AuthenticationInfo authenticate() {
+    return realm.doGetAuthenticationInfo(token);
+  }
+
+  @Benchmark
+  public AuthenticationInfo legacy() {
+    validator.checkToken(token.getCredentials());
+    SimplePrincipalCollection principalCollection = new SimplePrincipalCollection("ces-service-account", REALM);
+    principalCollection.add(legacyAccount, REALM);
+    principalCollection.add(new User("ces-service-account", "CES Service Account User", null), REALM);
+    return new SimpleAuthenticationInfo(principalCollection, null);
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the lookup of matching tokens and of tokens, that differ in their first or last character or in
+ * their length. All variants should take the same time for the same token length, and the gc profiler should
+ * report no allocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenSnapshotBenchmark {
+
+  @Param({"16", "64", "256"})
+  public int length;
+
+  private final Clock clock = Clock.systemUTC();
+
+  private TokenSnapshot snapshot;
+  private String token;
+  private String differentFirst;
+  private String differentLast;
+  private String longer;
+
+  @Setup
+  public void setUp() {
+    token = "a".repeat(length);
+    differentFirst = "b" + token.substring(1);
+    differentLast = token.substring(1) + "b";
+    longer = token + "a";
+    snapshot = TokenSnapshot.of(
+      Collections.singletonMap(ServiceAccounts.createDefault("token"), token), Instant.now()
+    );
+  }
+
+  @Benchmark
+  public ServiceAccount findMatchingToken() {
+    return snapshot.find(token, clock);
+  }
+
+  @Benchmark
+  public ServiceAccount findTokenWithDifferentFirstCharacter() {
+    return snapshot.find(differentFirst, clock);
+  }
+
+  @Benchmark
+  public ServiceAccount findTokenWithDifferentLastCharacter() {
+    return snapshot.find(differentLast, clock);
+  }
+
+  @Benchmark
+  public ServiceAccount findLongerToken() {
+    return snapshot.find(longer, clock);
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the lookup of remote addresses in allow-lists of growing size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TrustedNetworksBenchmark {
+
+  @Param({"2", "100", "10000"})
+  public int networks;
+
+  private TrustedNetworks trustedNetworks;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    List<String> cidrs = new ArrayList<>();
+    cidrs.add("127.0.0.1/32");
+    cidrs.add("::1/128");
+    for (int i = 2; i < networks; ++i) {
+      if (i % 2 == 0) {
+        cidrs.add(String.format("%d.%d.%d.0/%d", 11 + random.nextInt(100), random.nextInt(256), random.nextInt(256), 16 + random.nextInt(9)));
+      } else {
+        cidrs.add(String.format("2001:db8:%x:%x::/64", random.nextInt(0x10000), random.nextInt(0x10000)));
+      }
+    }
+    trustedNetworks = new TrustedNetworks(cidrs);
+  }
+
+  @Benchmark
+  public boolean trustedIpv4() {
+    return trustedNetworks.isTrusted("127.0.0.1");
+  }
+
+  @Benchmark
+  public boolean untrustedIpv4() {
+    return trustedNetworks.isTrusted("192.168.2.1");
+  }
+
+  @Benchmark
+  public boolean trustedIpv6() {
+    return trustedNetworks.isTrusted("::1");
+  }
+
+  @Benchmark
+  public boolean untrustedIpv6() {
+    return trustedNetworks.isTrusted("fe80::1c2d:3eff:fe4f:5a6b");
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+/**
+ * Parses textual ip addresses without regular expressions, name lookups or allocation. Addresses are
+ * returned as two longs with the upper and the lower 64 bits of the address; ipv4 addresses occupy the
+ * upper 32 bits of the first long.
+ */
+final class AddressParser {
+
+  static final int IPV4 = 4;
+  static final int IPV6 = 6;
+
+  private final int[] groups = new int[8];
+
+  private long high;
+  private long low;
+
+  /**
+   * Parses the given address.
+   *
+   * @return {@link #IPV4} or {@link #IPV6} for valid addresses, {@code 0} otherwise
+   */
+  int parse(String address) {
+    if (address == null || address.isEmpty()) {
+      return 0;
+    }
+    long ipv4 = parseIpv4(address, 0, address.length());
+    if (ipv4 >= 0) {
+      high = ipv4 << 32;
+      low = 0;
+      return IPV4;
+    }
+    if (!parseIpv6(address)) {
+      return 0;
+    }
+    if (high == 0 && (low >>> 32) == 0xffffL) {
+      high = (low & 0xffffffffL) << 32;
+      low = 0;
+      return IPV4;
+    }
+    return IPV6;
+  }
+
+  long getHigh() {
+    return high;
+  }
+
+  long getLow() {
+    return low;
+  }
+
+  static long parseIpv4(String address, int from, int to) {
+    long value = 0;
+    int part = 0;
+    int digits = 0;
+    int octets = 0;
+    for (int i = from; i < to; ++i) {
+      char c = address.charAt(i);
+      if (c >= '0' && c <= '9') {
+        part = part * 10 + (c - '0');
+        if (++digits > 3 || part > 255) {
+          return -1;
+        }
+      } else if (c == '.') {
+        if (digits == 0 || ++octets > 3) {
+          return -1;
+        }
+        value = value << 8 | part;
+        part = 0;
+        digits = 0;
+      } else {
+        return -1;
+      }
+    }
+    if (digits == 0 || octets != 3) {
+      return -1;
+    }
+    return value << 8 | part;
+  }
+
+  private boolean parseIpv6(String address) {
+    int start = 0;
+    int end = address.length();
+    if (address.charAt(0) == '[') {
+      if (address.charAt(end - 1) != ']') {
+        return false;
+      }
+      start = 1;
+      end = end - 1;
+    }
+    int zone = address.indexOf('%', start);
+    if (zone >= 0 && zone < end) {
+      end = zone;
+    }
+    if (end - start < 2) {
+      return false;
+    }
+
+    int count = 0;
+    int compressAt = -1;
+    int i = start;
+    if (address.charAt(i) == ':') {
+      if (address.charAt(i + 1) != ':') {
+        return false;
+      }
+      compressAt = 0;
+      i += 2;
+    }
+    while (i < end) {
+      int groupStart = i;
+      int value = 0;
+      int digits = 0;
+      int hex;
+      while (i < end && (hex = hexValue(address.charAt(i))) >= 0) {
+        value = (value << 4 | hex) & 0xfffff;
+        ++digits;
+        ++i;
+      }
+      if (i < end && address.charAt(i) == '.') {
+        long ipv4 = parseIpv4(address, groupStart, end);
+        if (ipv4 < 0 || count > 6) {
+          return false;
+        }
+        groups[count++] = (int) (ipv4 >>> 16);
+        groups[count++] = (int) (ipv4 & 0xffff);
+        i = end;
+        break;
+      }
+      if (digits == 0 || digits > 4 || count == 8) {
+        return false;
+      }
+      groups[count++] = value;
+      if (i == end) {
+        break;
+      }
+      if (address.charAt(i) != ':') {
+        return false;
+      }
+      ++i;
+      if (i < end && address.charAt(i) == ':') {
+        if (compressAt >= 0) {
+          return false;
+        }
+        compressAt = count;
+        ++i;
+      } else if (i == end) {
+        return false;
+      }
+    }
+    if ((compressAt < 0 && count != 8) || (compressAt >= 0 && count > 7)) {
+      return false;
+    }
+
+    int zeros = 8 - count;
+    long upper = 0;
+    long lower = 0;
+    int group = 0;
+    for (int index = 0; index < 8; ++index) {
+      int value;
+      if (compressAt >= 0 && index >= compressAt && index < compressAt + zeros) {
+        value = 0;
+      } else {
+        value = groups[group++];
+      }
+      if (index < 4) {
+        upper = upper << 16 | value;
+      } else {
+        lower = lower << 16 | value;
+      }
+    }
+    high = upper;
+    low = lower;
+    return true;
+  }
+
+  private static int hexValue(char c) {
+    if (c >= '0' && c <= '9') {
+      return c - '0';
+    } else if (c >= 'a' && c <= 'f') {
+      return c - 'a' + 10;
+    } else if (c >= 'A' && c <= 'F') {
+      return c - 'A' + 10;
+    }
+    return -1;
+  }
+}
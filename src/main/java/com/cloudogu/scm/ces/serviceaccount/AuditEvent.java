@@ -0,0 +1,68 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+/**
+ * Action of a service account, that is recorded in the {@link AuditTrail}.
+ */
+final class AuditEvent {
+
+  private final long timestamp;
+  private final String account;
+  private final String action;
+  private final String target;
+  private final String permission;
+
+  AuditEvent(long timestamp, String account, String action, String target, String permission) {
+    this.timestamp = timestamp;
+    this.account = account;
+    this.action = action;
+    this.target = target;
+    this.permission = permission;
+  }
+
+  long getTimestamp() {
+    return timestamp;
+  }
+
+  String getAccount() {
+    return account;
+  }
+
+  String getAction() {
+    return action;
+  }
+
+  String getTarget() {
+    return target;
+  }
+
+  /**
+   * The assigned or removed permission for permission events, {@code null} otherwise.
+   */
+  String getPermission() {
+    return permission;
+  }
+}
@@ -0,0 +1,253 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.SCMContextProvider;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.cloudogu.scm.ces.serviceaccount.Threads.daemon;
+
+/**
+ * Append only audit trail of the actions of service accounts. Request threads only put events into a
+ * bounded {@link RingBuffer}; a background thread writes them in batches as json lines and rotates the file,
+ * once it exceeds the configured size. If the buffer is full, new events are dropped rather than blocking the
+ * request. Dropped events are counted and the count is written to the trail with the next batch, so gaps are
+ * visible in the trail itself.
+ */
+@Singleton
+class AuditTrail {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AuditTrail.class);
+
+  private static final JsonFactory JSON = new JsonFactory();
+  private static final int BATCH_SIZE = 512;
+
+  private final boolean enabled;
+  private final Path file;
+  private final RingBuffer<AuditEvent> buffer;
+  private final Duration flushInterval;
+  private final long maxFileSize;
+  private final int maxFiles;
+  private final CesMetrics metrics;
+  private final AtomicLong dropped = new AtomicLong();
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(daemon("ces-audit-writer"));
+
+  // only used by the writer thread
+  private final List<AuditEvent> batch = new ArrayList<>();
+  private final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+  private FileChannel channel;
+
+  @Inject
+  AuditTrail(CesConfiguration configuration, SCMContextProvider context, CesMetrics metrics) {
+    this(configuration, resolveFile(configuration, context), metrics);
+  }
+
+  AuditTrail(CesConfiguration configuration, Path file, CesMetrics metrics) {
+    this.enabled = configuration.isAudit();
+    this.file = file;
+    this.buffer = new RingBuffer<>(configuration.getAuditBufferSize());
+    this.flushInterval = configuration.getAuditFlushInterval();
+    this.maxFileSize = configuration.getAuditMaxFileSize();
+    this.maxFiles = configuration.getAuditMaxFiles();
+    this.metrics = metrics;
+  }
+
+  private static Path resolveFile(CesConfiguration configuration, SCMContextProvider context) {
+    Path configured = configuration.getAuditFile();
+    if (configured != null) {
+      return configured;
+    }
+    return context.getBaseDirectory().toPath().resolve("ces").resolve("audit.log");
+  }
+
+  /**
+   * Adds the event to the trail without blocking. The event is dropped, if the buffer is full.
+   */
+  void record(AuditEvent event) {
+    if (!enabled) {
+      return;
+    }
+    if (!buffer.offer(event)) {
+      dropped.incrementAndGet();
+      metrics.auditDropped(1);
+    }
+  }
+
+  /**
+   * Starts writing buffered events periodically.
+   */
+  void start() {
+    if (!enabled) {
+      LOG.info("audit trail for ces service accounts is disabled");
+      return;
+    }
+    LOG.info("Writing audit trail of ces service accounts to {}", file);
+    long interval = Math.max(1, flushInterval.toMillis());
+    executor.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Writes the remaining events and closes the file.
+   */
+  void close() {
+    try {
+      executor.execute(() -> {
+        flush();
+        closeChannel();
+      });
+    } catch (RejectedExecutionException e) {
+      LOG.debug("audit trail has already been closed");
+    }
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+        LOG.warn("Could not write remaining {} events to audit trail in time", buffer.size());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  void flush() {
+    int drained;
+    do {
+      batch.clear();
+      drained = buffer.drain(batch, BATCH_SIZE);
+      long lost = dropped.getAndSet(0);
+      if (drained == 0 && lost == 0) {
+        return;
+      }
+      try {
+        write(lost);
+        metrics.auditWritten(drained);
+      } catch (IOException e) {
+        LOG.error("Could not write {} events to audit trail {}", drained, file, e);
+        metrics.auditDropped(drained);
+        // the next batch reports the lost events in the trail
+        dropped.addAndGet(drained + lost);
+        closeChannel();
+        return;
+      }
+    } while (drained == BATCH_SIZE);
+  }
+
+  private void write(long lost) throws IOException {
+    encoded.reset();
+    try (JsonGenerator generator = JSON.createGenerator(encoded, JsonEncoding.UTF8)) {
+      // each event is terminated by a newline, so no further separator is needed
+      generator.setRootValueSeparator(null);
+      if (lost > 0) {
+        generator.writeStartObject();
+        generator.writeStringField("timestamp", Instant.ofEpochMilli(System.currentTimeMillis()).toString());
+        generator.writeStringField("action", "audit.dropped");
+        generator.writeNumberField("count", lost);
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+      }
+      for (AuditEvent event : batch) {
+        generator.writeStartObject();
+        generator.writeStringField("timestamp", Instant.ofEpochMilli(event.getTimestamp()).toString());
+        generator.writeStringField("account", event.getAccount());
+        generator.writeStringField("action", event.getAction());
+        generator.writeStringField("target", event.getTarget());
+        if (event.getPermission() != null) {
+          generator.writeStringField("permission", event.getPermission());
+        }
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+      }
+    }
+
+    FileChannel current = open();
+    if (current.size() > 0 && current.size() + encoded.size() > maxFileSize) {
+      rotate();
+      current = open();
+    }
+    ByteBuffer bytes = ByteBuffer.wrap(encoded.toByteArray());
+    while (bytes.hasRemaining()) {
+      current.write(bytes);
+    }
+    current.force(false);
+  }
+
+  private FileChannel open() throws IOException {
+    if (channel == null) {
+      Files.createDirectories(file.toAbsolutePath().getParent());
+      channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+    return channel;
+  }
+
+  private void rotate() throws IOException {
+    closeChannel();
+    for (int index = maxFiles - 1; index > 0; --index) {
+      Path rotated = rotated(index);
+      if (Files.exists(rotated)) {
+        Files.move(rotated, rotated(index + 1), StandardCopyOption.REPLACE_EXISTING);
+      }
+    }
+    Files.move(file, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+    LOG.debug("rotated audit trail {}", file);
+  }
+
+  Path rotated(int index) {
+    return file.resolveSibling(file.getFileName() + "." + index);
+  }
+
+  private void closeChannel() {
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        LOG.warn("Could not close audit trail {}", file, e);
+      }
+      channel = null;
+    }
+  }
+}
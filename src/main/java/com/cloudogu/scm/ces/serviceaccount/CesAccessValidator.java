@@ -28,98 +28,499 @@ import org.apache.shiro.authc.AuthenticationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.inject.Inject;
 import javax.inject.Singleton;
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
+import static com.cloudogu.scm.ces.serviceaccount.Threads.daemon;
 
 @Singleton
 class CesAccessValidator {
 
   private static final Logger LOG = LoggerFactory.getLogger(CesAccessValidator.class);
 
-  private final Runtime runtime;
-  private final String configurationKey;
+  private final TokenSource source;
+  private final ServiceAccounts accounts;
+  private final CesConfiguration configuration;
+  private final Clock clock;
+  private final Backoff backoff;
+  private final CesMetrics metrics;
+  private final SignedTokenVerifier signedTokens;
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(daemon("ces-token-loader"));
 
-  private String apiToken;
+  private final AtomicReference<CompletableFuture<TokenSnapshot>> loading = new AtomicReference<>();
+  private final AtomicReference<CompletableFuture<TokenSnapshot>> pendingReload = new AtomicReference<>();
+  private final AtomicLong nextMismatchReload = new AtomicLong(Long.MIN_VALUE);
+  private final AtomicLong loads = new AtomicLong();
+  private final AtomicLong mismatchReloads = new AtomicLong();
+  private final AtomicLong backoffs = new AtomicLong();
+  private volatile TokenSnapshot snapshot;
+  private volatile TokenLoadFailure failure;
 
-  CesAccessValidator() {
-    this(Runtime.getRuntime(), getConfigurationKey());
+  @Inject
+  CesAccessValidator(Set<TokenSource> sources, ServiceAccounts accounts, CesConfiguration configuration, CesMetrics metrics) {
+    this(selectSource(sources, configuration), accounts, configuration, Clock.systemUTC(), metrics);
   }
 
-  private static String getConfigurationKey() {
-    String configurationKey = System.getenv("CES_TOKEN_CONFIGURATION_KEY");
-    if (configurationKey == null) {
-      LOG.error("Could not read name of configuration key for token from environment");
-    }
-    return configurationKey;
+  private static TokenSource selectSource(Set<TokenSource> sources, CesConfiguration configuration) {
+    String name = configuration.getTokenSource();
+    return findSource(sources, name)
+      .orElseGet(() -> {
+        LOG.error("Could not find token source '{}'; falling back to {}", name, DoguctlTokenSource.NAME);
+        return findSource(sources, DoguctlTokenSource.NAME)
+          .orElseGet(() -> new DoguctlTokenSource(Runtime.getRuntime(), configuration));
+      });
+  }
+
+  private static Optional<TokenSource> findSource(Set<TokenSource> sources, String name) {
+    return sources.stream().filter(source -> source.getName().equals(name)).findFirst();
   }
 
   CesAccessValidator(Runtime runtime, String configurationKey) {
-    this.runtime = runtime;
-    this.configurationKey = configurationKey;
+    this(runtime, configurationKey, new CesConfiguration());
+  }
+
+  CesAccessValidator(Runtime runtime, String configurationKey, CesConfiguration configuration) {
+    this(runtime, configurationKey, configuration, Clock.systemUTC());
+  }
+
+  CesAccessValidator(Runtime runtime, String configurationKey, CesConfiguration configuration, Clock clock) {
+    this(new DoguctlTokenSource(runtime, configuration), configurationKey, configuration, clock);
+  }
+
+  CesAccessValidator(TokenSource source, String configurationKey, CesConfiguration configuration, Clock clock) {
+    this(source, configurationKey, configuration, clock, CesMetrics.inMemory());
+  }
+
+  CesAccessValidator(TokenSource source, String configurationKey, CesConfiguration configuration, Clock clock, CesMetrics metrics) {
+    this(source, ServiceAccounts.single(configurationKey), configuration, clock, metrics);
+  }
+
+  CesAccessValidator(TokenSource source, ServiceAccounts accounts, CesConfiguration configuration, Clock clock, CesMetrics metrics) {
+    this.source = source;
+    this.accounts = accounts;
+    this.configuration = configuration;
+    this.clock = clock;
+    this.backoff = configuration.getBackoff();
+    this.metrics = metrics;
+    this.signedTokens = new SignedTokenVerifier(accounts, configuration, clock, metrics);
+    metrics.tokenAge(this, CesAccessValidator::getTokenAgeInSeconds);
+    metrics.tokenReady(this, validator -> validator.isTokenAvailable() ? 1 : 0);
   }
 
-  void checkToken(String apiToken) {
-    assertTokenRead();
+  /**
+   * Returns the service account of the given token. If a signing key is configured, signed tokens are
+   * verified in memory, see {@link SignedTokenVerifier}.
+   *
+   * @throws InvalidTokenException if the token does not belong to any service account
+   */
+  ServiceAccount checkToken(String apiToken) {
+    TokenSnapshot currentSnapshot = getSnapshot();
     if (apiToken == null) {
       LOG.trace("No access token given; rejecting request");
+      metrics.validation(CesMetrics.Outcome.NO_TOKEN);
       throw new AuthenticationException();
     }
-    if (!this.apiToken.equals(apiToken)) {
-      LOG.trace("Given access token does not match configured token; rejecting request");
-      throw new AuthenticationException();
+    if (signedTokens.isSigned(apiToken)) {
+      ServiceAccount account = signedTokens.verify(apiToken);
+      if (account == null) {
+        throw InvalidTokenException.INSTANCE;
+      }
+      return account;
+    }
+    ServiceAccount account = currentSnapshot.find(apiToken, clock);
+    if (account == null) {
+      account = findAfterReload(apiToken, currentSnapshot);
+    }
+    if (account == null) {
+      LOG.trace("Given access token does not match any configured token; rejecting request");
+      metrics.validation(CesMetrics.Outcome.MISMATCH);
+      throw InvalidTokenException.INSTANCE;
     }
-    LOG.trace("Given access token ok; granting access");
+    LOG.trace("Given access token ok; granting access to {}", account);
+    metrics.validation(CesMetrics.Outcome.OK);
+    return account;
   }
 
-  private synchronized void assertTokenRead() {
-    if (apiToken == null) {
-      readToken();
-      if (apiToken == null) {
-        throw new AuthenticationException();
+  /**
+   * Reads the token again to pick up a rotated token, if the reload on mismatch is enabled. Mismatching
+   * requests share a running read and at most one read is started per configured interval, so a flood of
+   * invalid tokens cannot hammer the token source.
+   */
+  private ServiceAccount findAfterReload(String apiToken, TokenSnapshot currentSnapshot) {
+    Duration interval = configuration.getMismatchReloadInterval();
+    if (interval.isZero() || interval.isNegative()) {
+      return null;
+    }
+    CompletableFuture<TokenSnapshot> currentLoading = reloadOnMismatch(interval);
+    // without a reload of its own, the request may still have missed a reload finished by another request
+    TokenSnapshot reloadedSnapshot = currentLoading == null ? snapshot : awaitReload(currentLoading);
+    if (reloadedSnapshot == null || reloadedSnapshot == currentSnapshot) {
+      return null;
+    }
+    return reloadedSnapshot.find(apiToken, clock);
+  }
+
+  private CompletableFuture<TokenSnapshot> reloadOnMismatch(Duration interval) {
+    CompletableFuture<TokenSnapshot> current = loading.get();
+    if (current != null && !current.isDone()) {
+      return current;
+    }
+    if (isBackingOff()) {
+      return null;
+    }
+    long now = clock.instant().toEpochMilli();
+    long next = nextMismatchReload.get();
+    if (now < next || !nextMismatchReload.compareAndSet(next, now + interval.toMillis())) {
+      // a reload was triggered recently, requests joining a running reload are handled above
+      return null;
+    }
+    LOG.debug("access token does not match; reloading ces serviceaccount access token");
+    mismatchReloads.incrementAndGet();
+    return reload();
+  }
+
+  private TokenSnapshot awaitReload(CompletableFuture<TokenSnapshot> currentLoading) {
+    try {
+      return currentLoading.get(configuration.getMismatchReloadWait().toMillis(), TimeUnit.MILLISECONDS);
+    } catch (TimeoutException | ExecutionException e) {
+      LOG.debug("ces serviceaccount access token was not reloaded in time");
+      return null;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+  }
+
+  private double getTokenAgeInSeconds() {
+    TokenSnapshot currentSnapshot = snapshot;
+    if (currentSnapshot == null) {
+      return Double.NaN;
+    }
+    return Duration.between(currentSnapshot.getLoadedAt(), clock.instant()).getSeconds();
+  }
+
+  boolean isTokenAvailable() {
+    return snapshot != null;
+  }
+
+  /**
+   * Returns {@code true}, if the token belongs to an account of the current snapshot. Unlike
+   * {@link #checkToken(String)} this neither loads nor reloads the tokens.
+   */
+  boolean isKnownToken(String apiToken) {
+    TokenSnapshot currentSnapshot = snapshot;
+    return currentSnapshot != null && currentSnapshot.matches(apiToken, clock);
+  }
+
+  /**
+   * Returns the time of the last successful load or {@code null}, if no token has been loaded yet.
+   */
+  Instant getLoadedAt() {
+    TokenSnapshot currentSnapshot = snapshot;
+    return currentSnapshot == null ? null : currentSnapshot.getLoadedAt();
+  }
+
+  /**
+   * Returns the consecutive failed attempts to load the token or {@code null}, if the last attempt succeeded.
+   */
+  TokenLoadFailure getFailure() {
+    return failure;
+  }
+
+  String getSourceName() {
+    return source.getName();
+  }
+
+  /**
+   * Returns the number of attempts to load the tokens since the start.
+   */
+  long getLoadCount() {
+    return loads.get();
+  }
+
+  /**
+   * Returns the number of loads since the start, that have been triggered by mismatching tokens.
+   */
+  long getMismatchReloadCount() {
+    return mismatchReloads.get();
+  }
+
+  /**
+   * Returns the number of failed loads since the start, after which loading has been backing off.
+   */
+  long getBackoffCount() {
+    return backoffs.get();
+  }
+
+  /**
+   * Starts reading the token in the background, if it has not been read yet or could not be read for all
+   * accounts, and no other read is running. Concurrent callers share the same read. After a failed read no
+   * new read is started until the backoff has expired.
+   *
+   * @return future that completes with the read token or with {@code null}, if the token could not be read
+   */
+  CompletableFuture<TokenSnapshot> startLoading() {
+    while (true) {
+      CompletableFuture<TokenSnapshot> current = loading.get();
+      if (current != null && (!current.isDone() || (snapshot != null && failure == null) || isBackingOff())) {
+        return current;
+      }
+      CompletableFuture<TokenSnapshot> next = new CompletableFuture<>();
+      if (loading.compareAndSet(current, next)) {
+        LOG.debug("Start loading ces serviceaccount access token in background");
+        submit(next);
+        return next;
       }
     }
   }
 
-  private void readToken() {
-    if (configurationKey == null) {
-      LOG.error("Could not read name of configuration key for token from environment");
+  /**
+   * Reads the token again. If a read is already running, it may have read the source before the change,
+   * which triggered this reload, so one more read is queued after it. All reloads requested during a running
+   * read share the queued read. Until the new token has been read, the current token stays valid.
+   *
+   * @return future that completes with the current token after the read
+   */
+  CompletableFuture<TokenSnapshot> reload() {
+    while (true) {
+      CompletableFuture<TokenSnapshot> current = loading.get();
+      if (current != null && !current.isDone()) {
+        return queueReload(current);
+      }
+      CompletableFuture<TokenSnapshot> next = new CompletableFuture<>();
+      if (loading.compareAndSet(current, next)) {
+        LOG.debug("Start reloading ces serviceaccount access token");
+        submit(next);
+        return next;
+      }
+    }
+  }
+
+  private CompletableFuture<TokenSnapshot> queueReload(CompletableFuture<TokenSnapshot> running) {
+    CompletableFuture<TokenSnapshot> queued = pendingReload.updateAndGet(
+      pending -> pending == null ? new CompletableFuture<>() : pending
+    );
+    if (running.isDone()) {
+      // the running read may have finished before it could see the queued reload
+      startPendingReload(running);
+    }
+    return queued;
+  }
+
+  private void startPendingReload(CompletableFuture<TokenSnapshot> finished) {
+    CompletableFuture<TokenSnapshot> queued = pendingReload.getAndSet(null);
+    if (queued == null) {
       return;
     }
-    readToken(configurationKey);
+    if (loading.compareAndSet(finished, queued)) {
+      LOG.debug("Start queued reload of ces serviceaccount access token");
+      submit(queued);
+    } else {
+      // another read has been started after the finished one, so it sees the change as well
+      loading.get().whenComplete((loadedSnapshot, e) -> queued.complete(loadedSnapshot));
+    }
+  }
+
+  /**
+   * Schedules the periodic reload of the token, if a refresh interval is configured.
+   */
+  void scheduleRefresh() {
+    Duration interval = configuration.getRefreshInterval();
+    if (interval.isZero() || interval.isNegative()) {
+      LOG.debug("no refresh interval for ces serviceaccount access token configured");
+      return;
+    }
+    LOG.info("Refreshing ces serviceaccount access token every {}", interval);
+    executor.scheduleWithFixedDelay(this::refresh, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Returns the files containing the tokens of all accounts and the signing key, if the configured source is
+   * backed by files.
+   */
+  Set<Path> getWatchPaths() {
+    Set<Path> paths = new LinkedHashSet<>();
+    for (ServiceAccount account : accounts.getAll()) {
+      source.getWatchPath(account.getConfigurationKey()).ifPresent(paths::add);
+    }
+    String signingKey = configuration.getSigningKeyConfigurationKey();
+    if (signingKey != null) {
+      source.getWatchPath(signingKey).ifPresent(paths::add);
+    }
+    return paths;
+  }
+
+  private void refresh() {
+    if (isBackingOff()) {
+      LOG.debug("skipping refresh of ces serviceaccount access token during backoff");
+      return;
+    }
+    reload();
+  }
+
+  private void submit(CompletableFuture<TokenSnapshot> future) {
+    try {
+      executor.execute(() -> {
+        future.complete(load());
+        startPendingReload(future);
+      });
+    } catch (RejectedExecutionException e) {
+      LOG.warn("Could not start loading ces serviceaccount access token", e);
+      future.complete(null);
+    }
+  }
+
+  void close() {
+    executor.shutdownNow();
+    source.close();
+  }
+
+  private TokenSnapshot getSnapshot() {
+    TokenSnapshot currentSnapshot = snapshot;
+    if (currentSnapshot != null) {
+      if (failure != null && !isBackingOff()) {
+        // retry the accounts or the signing key, that could not be read, while the loaded tokens are served
+        startLoading();
+      }
+      return currentSnapshot;
+    }
+    try {
+      return awaitSnapshot();
+    } catch (AuthenticationException e) {
+      metrics.validation(CesMetrics.Outcome.TOKEN_UNAVAILABLE);
+      throw e;
+    }
+  }
+
+  boolean isBackingOff() {
+    TokenLoadFailure currentFailure = failure;
+    return currentFailure != null && currentFailure.isBackingOff(clock.instant());
   }
 
-  private void readToken(String configurationKey) {
+  private TokenSnapshot awaitSnapshot() {
+    if (isBackingOff()) {
+      LOG.trace("loading ces serviceaccount access token is backing off; rejecting request");
+      throw new TokenUnavailableException();
+    }
+    CompletableFuture<TokenSnapshot> currentLoading = startLoading();
+    if (configuration.getStartupMode() == CesConfiguration.StartupMode.FAIL_FAST) {
+      LOG.debug("ces serviceaccount access token not loaded yet; rejecting request");
+      throw new TokenUnavailableException();
+    }
+    TokenSnapshot loadedSnapshot = await(currentLoading);
+    if (loadedSnapshot == null) {
+      throw new AuthenticationException();
+    }
+    return loadedSnapshot;
+  }
+
+  private TokenSnapshot await(CompletableFuture<TokenSnapshot> currentLoading) {
+    Duration requestTimeout = configuration.getRequestTimeout();
     try {
-      LOG.info("Reading ces serviceaccount access token from doguctl with configuration key {}", configurationKey);
-      Process process = runtime.exec(new String[]{"doguctl", "config", "--encrypted", configurationKey});
-      LOG.trace("Started process");
-      process.getOutputStream().close();
-      LOG.trace("Closed out");
-      handleProcessOutput(process);
+      return currentLoading.get(requestTimeout.toMillis(), TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      LOG.warn("ces serviceaccount access token could not be loaded within {}; rejecting request", requestTimeout);
+      throw new TokenUnavailableException();
     } catch (InterruptedException e) {
       Thread.currentThread().interrupt();
-      LOG.error("thread was interrupted", e);
-    } catch (Exception e) {
-      LOG.error("Could not read token from doguctl", e);
+      throw new TokenUnavailableException();
+    } catch (ExecutionException e) {
+      throw new AuthenticationException("Could not load ces serviceaccount access token", e);
     }
   }
 
-  private void handleProcessOutput(Process process) throws IOException, InterruptedException {
-    try (InputStream inputStream = process.getInputStream()) {
-      LOG.trace("Got input");
-      String processOut = new BufferedReader(new InputStreamReader(inputStream, UTF_8)).readLine();
-      int exitValue = process.waitFor();
-      if (exitValue == 0) {
-        apiToken = processOut;
-        LOG.info("Found ces serviceaccount access token");
-      } else {
-        LOG.error("got non-zero exit value ({}) from doguctl call", exitValue);
+  private TokenSnapshot load() {
+    loads.incrementAndGet();
+    TokenSnapshot currentSnapshot = snapshot;
+    if (accounts.isEmpty()) {
+      LOG.error("Could not read name of configuration key for token from environment");
+      recordFailure();
+      return currentSnapshot;
+    }
+    Map<ServiceAccount, String> tokens = new HashMap<>();
+    for (ServiceAccount account : accounts.getAll()) {
+      String token = read("access token of " + account, account.getConfigurationKey());
+      if (token != null) {
+        tokens.put(account, token);
       }
     }
+    boolean signingKeyLoaded = loadSigningKey();
+    boolean signedTokensOnly = tokens.isEmpty() && signingKeyLoaded && configuration.getSigningKeyConfigurationKey() != null;
+    if (tokens.isEmpty() && !signedTokensOnly) {
+      recordFailure();
+      return currentSnapshot;
+    }
+    TokenSnapshot loadedSnapshot;
+    if (signedTokensOnly && currentSnapshot != null) {
+      // keep the static tokens loaded before, signed tokens are verified with the freshly loaded key
+      loadedSnapshot = currentSnapshot;
+    } else if (currentSnapshot == null) {
+      loadedSnapshot = TokenSnapshot.of(tokens, clock.instant());
+    } else {
+      loadedSnapshot = currentSnapshot.refresh(tokens, clock.instant(), configuration.getRotationOverlap());
+    }
+    snapshot = loadedSnapshot;
+    if (tokens.size() < accounts.getAll().size() || !signingKeyLoaded) {
+      // accounts with a readable token are served, the others are retried by the first request after the backoff
+      recordFailure();
+    } else {
+      failure = null;
+    }
+    return loadedSnapshot;
+  }
+
+  private void recordFailure() {
+    TokenLoadFailure previousFailure = failure;
+    int failures = previousFailure == null ? 1 : previousFailure.getFailures() + 1;
+    Instant retryAt = clock.instant().plus(backoff.delay(failures));
+    failure = new TokenLoadFailure(failures, retryAt);
+    backoffs.incrementAndGet();
+    LOG.warn("Could not load ces serviceaccount access token ({} consecutive failures); backing off until {}", failures, retryAt);
+  }
+
+  private boolean loadSigningKey() {
+    String configurationKey = configuration.getSigningKeyConfigurationKey();
+    if (configurationKey == null) {
+      return true;
+    }
+    String signingKey = read("signing key", configurationKey);
+    if (!signedTokens.setKey(signingKey)) {
+      LOG.error("Could not load signing key for signed ces tokens");
+      return false;
+    }
+    return true;
+  }
+
+  private String read(String secret, String configurationKey) {
+    long start = System.nanoTime();
+    try {
+      LOG.info("Reading {} from {} with configuration key {}", secret, source.getName(), configurationKey);
+      String token = source.read(configurationKey);
+      LOG.info("Found {}", secret);
+      metrics.load(source.getName(), true, System.nanoTime() - start);
+      return token;
+    } catch (Exception e) {
+      LOG.error("Could not read {} from {}", secret, source.getName(), e);
+      metrics.load(source.getName(), false, System.nanoTime() - start);
+      return null;
+    }
   }
 }
@@ -0,0 +1,85 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import org.apache.shiro.authz.AuthorizationInfo;
+import org.apache.shiro.authz.Permission;
+import org.apache.shiro.authz.permission.WildcardPermission;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Immutable authorization info with permissions, that are parsed once on creation. Instances are shared by
+ * all subjects they apply to.
+ */
+final class CesAuthorizationInfo implements AuthorizationInfo {
+
+  private static final long serialVersionUID = 1L;
+
+  private final Set<String> stringPermissions;
+  private final Set<Permission> objectPermissions;
+  private final Permission[] permissions;
+
+  CesAuthorizationInfo(Collection<String> stringPermissions) {
+    Set<String> strings = new LinkedHashSet<>(stringPermissions);
+    Set<Permission> objects = new LinkedHashSet<>();
+    for (String permission : strings) {
+      objects.add(new WildcardPermission(permission));
+    }
+    this.stringPermissions = Collections.unmodifiableSet(strings);
+    this.objectPermissions = Collections.unmodifiableSet(objects);
+    this.permissions = objects.toArray(new Permission[0]);
+  }
+
+  /**
+   * Checks the given permission against the precompiled permissions without any allocation.
+   */
+  boolean implies(Permission permission) {
+    for (Permission granted : permissions) {
+      if (granted.implies(permission)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public Collection<String> getRoles() {
+    return Collections.emptySet();
+  }
+
+  @Override
+  public Collection<String> getStringPermissions() {
+    return stringPermissions;
+  }
+
+  @Override
+  public Collection<Permission> getObjectPermissions() {
+    return objectPermissions;
+  }
+}
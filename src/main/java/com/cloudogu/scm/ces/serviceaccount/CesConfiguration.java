@@ -0,0 +1,508 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+
+/**
+ * Settings of the ces integration. All values are read from the environment of the dogu.
+ */
+@Singleton
+class CesConfiguration {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CesConfiguration.class);
+
+  private static final CharMatcher NON_ALPHANUMERIC = CharMatcher.inRange('a', 'z')
+    .or(CharMatcher.inRange('A', 'Z'))
+    .or(CharMatcher.inRange('0', '9'))
+    .negate();
+
+  private static final Splitter PERMISSION_SPLITTER = Splitter.on(CharMatcher.anyOf("; "))
+    .trimResults()
+    .omitEmptyStrings();
+
+  private static final List<String> DEFAULT_TRUSTED_NETWORKS = Arrays.asList("127.0.0.1/32", "::1/128");
+
+  private final String tokenHeader;
+  private final String configurationKey;
+  private final String tokenSource;
+  private final String doguctl;
+  private final Path tokenDirectory;
+  private final Path doguConfigFile;
+  private final StartupMode startupMode;
+  private final Duration backoffInitialDelay;
+  private final Duration backoffMaxDelay;
+  private final Duration loadTimeout;
+  private final Duration requestTimeout;
+  private final Duration refreshInterval;
+  private final Duration rotationOverlap;
+  private final Duration mismatchReloadInterval;
+  private final Duration mismatchReloadWait;
+  private final boolean watch;
+  private final Duration watchDebounce;
+  private final List<String> trustedNetworks;
+  private final List<Account> accounts;
+  private final int batchMaxOperations;
+  private final int batchChunkSize;
+  private final Duration batchTimeout;
+  private final Duration syncJournalRetention;
+  private final String signingKeyConfigurationKey;
+  private final Duration signedTokenMaxLifetime;
+  private final int replayCacheSize;
+  private final int failureThreshold;
+  private final Duration failureDecay;
+  private final int failureStripes;
+  private final boolean audit;
+  private final Path auditFile;
+  private final int auditBufferSize;
+  private final Duration auditFlushInterval;
+  private final int auditMaxFileSize;
+  private final int auditMaxFiles;
+
+  @Inject
+  CesConfiguration() {
+    this(System::getenv);
+  }
+
+  CesConfiguration(Function<String, String> environment) {
+    this.tokenHeader = environment.apply("CES_TOKEN_HEADER");
+    this.configurationKey = environment.apply("CES_TOKEN_CONFIGURATION_KEY");
+    this.tokenSource = withDefault(environment.apply("CES_TOKEN_SOURCE"), DoguctlTokenSource.NAME);
+    this.doguctl = withDefault(environment.apply("CES_DOGUCTL_PATH"), "doguctl");
+    this.tokenDirectory = parsePath(environment.apply("CES_TOKEN_DIRECTORY"));
+    this.doguConfigFile = parsePath(environment.apply("CES_DOGU_CONFIG_FILE"));
+    this.startupMode = StartupMode.parse(environment.apply("CES_TOKEN_STARTUP_MODE"));
+    this.backoffInitialDelay = parseDuration(environment, "CES_TOKEN_BACKOFF_INITIAL_DELAY", Duration.ofSeconds(1));
+    this.backoffMaxDelay = parseDuration(environment, "CES_TOKEN_BACKOFF_MAX_DELAY", Duration.ofMinutes(5));
+    this.loadTimeout = parseDuration(environment, "CES_TOKEN_LOAD_TIMEOUT", Duration.ofSeconds(30));
+    this.requestTimeout = parseDuration(environment, "CES_TOKEN_REQUEST_TIMEOUT", Duration.ofSeconds(10));
+    this.refreshInterval = parseDuration(environment, "CES_TOKEN_REFRESH_INTERVAL", Duration.ZERO);
+    this.rotationOverlap = parseDuration(environment, "CES_TOKEN_ROTATION_OVERLAP", Duration.ofMinutes(5));
+    this.mismatchReloadInterval = parseDuration(environment, "CES_TOKEN_MISMATCH_RELOAD_INTERVAL", Duration.ZERO);
+    this.mismatchReloadWait = parseDuration(environment, "CES_TOKEN_MISMATCH_RELOAD_WAIT", Duration.ofSeconds(2));
+    this.watch = Boolean.parseBoolean(environment.apply("CES_TOKEN_WATCH"));
+    this.watchDebounce = parseDuration(environment, "CES_TOKEN_WATCH_DEBOUNCE", Duration.ofMillis(500));
+    this.trustedNetworks = parseList(environment.apply("CES_TRUSTED_NETWORKS"), DEFAULT_TRUSTED_NETWORKS);
+    this.accounts = parseAccounts(environment);
+    this.batchMaxOperations = parsePositiveInt(environment, "CES_BATCH_MAX_OPERATIONS", 10_000);
+    this.batchChunkSize = parsePositiveInt(environment, "CES_BATCH_CHUNK_SIZE", 100);
+    this.batchTimeout = parseDuration(environment, "CES_BATCH_TIMEOUT", Duration.ofMinutes(1));
+    this.syncJournalRetention = parseDuration(environment, "CES_SYNC_JOURNAL_RETENTION", Duration.ofHours(24));
+    this.signingKeyConfigurationKey = environment.apply("CES_SIGNING_KEY_CONFIGURATION_KEY");
+    this.signedTokenMaxLifetime = parseDuration(environment, "CES_SIGNED_TOKEN_MAX_LIFETIME", Duration.ofHours(1));
+    this.replayCacheSize = parsePositiveInt(environment, "CES_SIGNED_TOKEN_REPLAY_CACHE_SIZE", 10_000);
+    this.failureThreshold = parsePositiveInt(environment, "CES_TOKEN_FAILURE_THRESHOLD", 10);
+    this.failureDecay = parseDuration(environment, "CES_TOKEN_FAILURE_DECAY", Duration.ofMinutes(1));
+    this.failureStripes = parsePositiveInt(environment, "CES_TOKEN_FAILURE_STRIPES", 4096);
+    this.audit = !"false".equalsIgnoreCase(environment.apply("CES_AUDIT_ENABLED"));
+    this.auditFile = parsePath(environment.apply("CES_AUDIT_FILE"));
+    this.auditBufferSize = parsePositiveInt(environment, "CES_AUDIT_BUFFER_SIZE", 8192);
+    this.auditFlushInterval = parseDuration(environment, "CES_AUDIT_FLUSH_INTERVAL", Duration.ofSeconds(1));
+    this.auditMaxFileSize = parsePositiveInt(environment, "CES_AUDIT_MAX_FILE_SIZE", 10 * 1024 * 1024);
+    this.auditMaxFiles = parsePositiveInt(environment, "CES_AUDIT_MAX_FILES", 5);
+  }
+
+  private static String withDefault(String value, String defaultValue) {
+    if (value == null || value.trim().isEmpty()) {
+      return defaultValue;
+    }
+    return value.trim();
+  }
+
+  private static List<String> parseList(String value, List<String> defaultValue) {
+    if (value == null || value.trim().isEmpty()) {
+      return defaultValue;
+    }
+    return Splitter.on(',').trimResults().omitEmptyStrings().splitToList(value);
+  }
+
+  private static List<Account> parseAccounts(Function<String, String> environment) {
+    List<Account> result = new ArrayList<>();
+    for (String name : parseList(environment.apply("CES_SERVICE_ACCOUNTS"), Collections.emptyList())) {
+      String prefix = "CES_SERVICE_ACCOUNT_" + NON_ALPHANUMERIC.replaceFrom(name, '_').toUpperCase(Locale.ENGLISH);
+      String key = environment.apply(prefix + "_KEY");
+      if (key == null || key.trim().isEmpty()) {
+        LOG.error("No configuration key for service account '{}' defined in {}_KEY; ignoring account", name, prefix);
+        continue;
+      }
+      List<String> permissions = PERMISSION_SPLITTER.splitToList(Strings.nullToEmpty(environment.apply(prefix + "_PERMISSIONS")));
+      if (permissions.isEmpty()) {
+        LOG.warn("No permissions for service account '{}' defined in {}_PERMISSIONS", name, prefix);
+      }
+      result.add(new Account(name, key.trim(), permissions));
+    }
+    return Collections.unmodifiableList(result);
+  }
+
+  private static Path parsePath(String value) {
+    if (value == null || value.trim().isEmpty()) {
+      return null;
+    }
+    return Paths.get(value.trim());
+  }
+
+  /**
+   * Parses durations like {@code 500ms}, {@code 30s}, {@code 5m} or {@code 1h}. Values without unit are
+   * interpreted as seconds, ISO-8601 durations like {@code PT30S} are accepted as well.
+   */
+  static Duration parseDuration(Function<String, String> environment, String name, Duration defaultValue) {
+    String value = environment.apply(name);
+    if (value == null || value.trim().isEmpty()) {
+      return defaultValue;
+    }
+    String trimmed = value.trim().toLowerCase(Locale.ENGLISH);
+    try {
+      if (trimmed.startsWith("p")) {
+        return Duration.parse(trimmed.toUpperCase(Locale.ENGLISH));
+      } else if (trimmed.endsWith("ms")) {
+        return Duration.ofMillis(Long.parseLong(trimmed.substring(0, trimmed.length() - 2)));
+      } else if (trimmed.endsWith("s")) {
+        return Duration.ofSeconds(Long.parseLong(trimmed.substring(0, trimmed.length() - 1)));
+      } else if (trimmed.endsWith("m")) {
+        return Duration.ofMinutes(Long.parseLong(trimmed.substring(0, trimmed.length() - 1)));
+      } else if (trimmed.endsWith("h")) {
+        return Duration.ofHours(Long.parseLong(trimmed.substring(0, trimmed.length() - 1)));
+      }
+      return Duration.ofSeconds(Long.parseLong(trimmed));
+    } catch (NumberFormatException | DateTimeParseException e) {
+      LOG.warn("Could not parse duration '{}' of {}; falling back to {}", value, name, defaultValue);
+      return defaultValue;
+    }
+  }
+
+  static int parsePositiveInt(Function<String, String> environment, String name, int defaultValue) {
+    String value = environment.apply(name);
+    if (value == null || value.trim().isEmpty()) {
+      return defaultValue;
+    }
+    try {
+      int parsed = Integer.parseInt(value.trim());
+      if (parsed > 0) {
+        return parsed;
+      }
+    } catch (NumberFormatException e) {
+      // handled below
+    }
+    LOG.warn("Could not parse positive number '{}' of {}; falling back to {}", value, name, defaultValue);
+    return defaultValue;
+  }
+
+  String getTokenHeader() {
+    return tokenHeader;
+  }
+
+  String getConfigurationKey() {
+    return configurationKey;
+  }
+
+  /**
+   * Name of the {@link TokenSource} to read the token from.
+   */
+  String getTokenSource() {
+    return tokenSource;
+  }
+
+  String getDoguctl() {
+    return doguctl;
+  }
+
+  Path getTokenDirectory() {
+    return tokenDirectory;
+  }
+
+  Path getDoguConfigFile() {
+    return doguConfigFile;
+  }
+
+  StartupMode getStartupMode() {
+    return startupMode;
+  }
+
+  Backoff getBackoff() {
+    return new Backoff(backoffInitialDelay, backoffMaxDelay);
+  }
+
+  /**
+   * Maximum time for a single attempt to load the token; doguctl is killed afterwards.
+   */
+  Duration getLoadTimeout() {
+    return loadTimeout;
+  }
+
+  /**
+   * Maximum time a request waits for the token to be loaded in {@link StartupMode#BLOCK}.
+   */
+  Duration getRequestTimeout() {
+    return requestTimeout;
+  }
+
+  /**
+   * Interval in which the token is reloaded in the background; {@link Duration#ZERO} disables the refresh.
+   */
+  Duration getRefreshInterval() {
+    return refreshInterval;
+  }
+
+  /**
+   * Time the previous token is still accepted after a new token has been loaded.
+   */
+  Duration getRotationOverlap() {
+    return rotationOverlap;
+  }
+
+  /**
+   * Minimum time between two reloads of the token, that are triggered by tokens which do not match any
+   * loaded token; {@link Duration#ZERO} disables the reload on mismatch.
+   */
+  Duration getMismatchReloadInterval() {
+    return mismatchReloadInterval;
+  }
+
+  /**
+   * Time a request with a mismatching token waits for the triggered reload, before it is rejected.
+   */
+  Duration getMismatchReloadWait() {
+    return mismatchReloadWait;
+  }
+
+  /**
+   * Whether the token should be reloaded on changes of its file, if the token source is backed by a file.
+   */
+  boolean isWatch() {
+    return watch;
+  }
+
+  /**
+   * Time to wait for further changes of the token file before the token is reloaded.
+   */
+  Duration getWatchDebounce() {
+    return watchDebounce;
+  }
+
+  /**
+   * Networks in cidr notation, from which ces tokens are accepted. Defaults to the loopback addresses.
+   */
+  List<String> getTrustedNetworks() {
+    return trustedNetworks;
+  }
+
+  /**
+   * Service accounts besides the default ces service account. The names of the accounts are read from
+   * {@code CES_SERVICE_ACCOUNTS}, the configuration key of the token and the permissions of each account from
+   * {@code CES_SERVICE_ACCOUNT_<NAME>_KEY} and {@code CES_SERVICE_ACCOUNT_<NAME>_PERMISSIONS}.
+   */
+  List<Account> getAccounts() {
+    return accounts;
+  }
+
+  /**
+   * Maximum number of operations, that are accepted in a single batch request.
+   */
+  int getBatchMaxOperations() {
+    return batchMaxOperations;
+  }
+
+  /**
+   * Number of operations of a batch request, that are processed between two checks of the time limit.
+   */
+  int getBatchChunkSize() {
+    return batchChunkSize;
+  }
+
+  /**
+   * Time after which no further chunk of a batch request is started; {@link Duration#ZERO} disables the limit.
+   */
+  Duration getBatchTimeout() {
+    return batchTimeout;
+  }
+
+  /**
+   * Time for which deletions of users and changes of permissions are remembered for incremental
+   * synchronizations. Older sync cursors lead to a full synchronization.
+   */
+  Duration getSyncJournalRetention() {
+    return syncJournalRetention;
+  }
+
+  /**
+   * Key of the secret for signed ces tokens in the configured {@link TokenSource}. Signed tokens are only
+   * accepted, if a key is configured.
+   */
+  String getSigningKeyConfigurationKey() {
+    return signingKeyConfigurationKey;
+  }
+
+  /**
+   * Maximum time between now and the expiry of a signed token; tokens with a later expiry are rejected.
+   */
+  Duration getSignedTokenMaxLifetime() {
+    return signedTokenMaxLifetime;
+  }
+
+  /**
+   * Maximum number of nonces of single use tokens, that are remembered until the tokens expire.
+   */
+  int getReplayCacheSize() {
+    return replayCacheSize;
+  }
+
+  /**
+   * Number of failed validations of the same token from the same address, after which further requests
+   * with this token are rejected without validation.
+   */
+  int getFailureThreshold() {
+    return failureThreshold;
+  }
+
+  /**
+   * Interval after which the failure count of a token is halved.
+   */
+  Duration getFailureDecay() {
+    return failureDecay;
+  }
+
+  /**
+   * Number of counters for failed validations; clients are spread over these counters.
+   */
+  int getFailureStripes() {
+    return failureStripes;
+  }
+
+  /**
+   * Whether actions of service accounts are written to the audit trail. Enabled by default.
+   */
+  boolean isAudit() {
+    return audit;
+  }
+
+  /**
+   * File of the audit trail or {@code null}, if the default file in the scm home directory should be used.
+   */
+  Path getAuditFile() {
+    return auditFile;
+  }
+
+  /**
+   * Maximum number of audit events, that are buffered until they are written. Further events are dropped.
+   */
+  int getAuditBufferSize() {
+    return auditBufferSize;
+  }
+
+  /**
+   * Interval in which buffered audit events are written to the audit trail.
+   */
+  Duration getAuditFlushInterval() {
+    return auditFlushInterval;
+  }
+
+  /**
+   * Size in bytes, after which the audit trail is rotated.
+   */
+  int getAuditMaxFileSize() {
+    return auditMaxFileSize;
+  }
+
+  /**
+   * Number of rotated audit files, that are kept besides the current file.
+   */
+  int getAuditMaxFiles() {
+    return auditMaxFiles;
+  }
+
+  /**
+   * Settings of an additional service account.
+   */
+  static final class Account {
+
+    private final String name;
+    private final String configurationKey;
+    private final List<String> permissions;
+
+    Account(String name, String configurationKey, List<String> permissions) {
+      this.name = name;
+      this.configurationKey = configurationKey;
+      this.permissions = permissions;
+    }
+
+    String getName() {
+      return name;
+    }
+
+    String getConfigurationKey() {
+      return configurationKey;
+    }
+
+    /**
+     * Shiro permissions of the account, separated by semicolons or spaces in the environment.
+     */
+    List<String> getPermissions() {
+      return permissions;
+    }
+  }
+
+  /**
+   * Defines how requests are handled, while the token is still loaded after the start of SCM-Manager.
+   */
+  enum StartupMode {
+    /**
+     * Requests wait until the token has been loaded.
+     */
+    BLOCK,
+    /**
+     * Requests are rejected with status 503 until the token has been loaded.
+     */
+    FAIL_FAST;
+
+    static StartupMode parse(String value) {
+      if (value == null) {
+        return BLOCK;
+      }
+      try {
+        return valueOf(value.trim().replace('-', '_').toUpperCase(Locale.ENGLISH));
+      } catch (IllegalArgumentException e) {
+        LOG.warn("Unknown startup mode '{}'; falling back to {}", value, BLOCK);
+        return BLOCK;
+      }
+    }
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Snapshot of the state of the ces authentication, see {@link CesDiagnosticsResource}. Counters are counted
+ * since the start of SCM-Manager.
+ */
+public class CesDiagnostics {
+
+  private final boolean tokenLoaded;
+  private final String loadedAt;
+  private final String tokenSource;
+  private final String lastLoadSource;
+  private final Boolean lastLoadSuccessful;
+  private final Double lastLoadDurationMillis;
+  private final Integer lastExitCode;
+  private final long loads;
+  private final long mismatchReloads;
+  private final long backoffs;
+  private final boolean backingOff;
+  private final int consecutiveFailures;
+  private final String retryAt;
+  private final Map<String, Long> validations;
+
+  CesDiagnostics(CesAccessValidator validator, CesMetrics metrics) {
+    Instant loadedAtInstant = validator.getLoadedAt();
+    this.tokenLoaded = loadedAtInstant != null;
+    this.loadedAt = loadedAtInstant == null ? null : loadedAtInstant.toString();
+    this.tokenSource = validator.getSourceName();
+    CesMetrics.LoadAttempt lastLoad = metrics.getLastLoad();
+    this.lastLoadSource = lastLoad == null ? null : lastLoad.getSource();
+    this.lastLoadSuccessful = lastLoad == null ? null : lastLoad.isSuccess();
+    this.lastLoadDurationMillis = lastLoad == null ? null : lastLoad.getDurationNanos() / 1_000_000.0;
+    this.lastExitCode = metrics.getLastExitCode();
+    this.loads = validator.getLoadCount();
+    this.mismatchReloads = validator.getMismatchReloadCount();
+    this.backoffs = validator.getBackoffCount();
+    this.backingOff = validator.isBackingOff();
+    TokenLoadFailure failure = validator.getFailure();
+    this.consecutiveFailures = failure == null ? 0 : failure.getFailures();
+    this.retryAt = failure == null ? null : failure.getRetryAt().toString();
+    this.validations = metrics.getValidationsByOutcome();
+  }
+
+  public boolean isTokenLoaded() {
+    return tokenLoaded;
+  }
+
+  public String getLoadedAt() {
+    return loadedAt;
+  }
+
+  /**
+   * Name of the configured token source.
+   */
+  public String getTokenSource() {
+    return tokenSource;
+  }
+
+  /**
+   * Source of the last read of a token or signing key.
+   */
+  public String getLastLoadSource() {
+    return lastLoadSource;
+  }
+
+  public Boolean getLastLoadSuccessful() {
+    return lastLoadSuccessful;
+  }
+
+  public Double getLastLoadDurationMillis() {
+    return lastLoadDurationMillis;
+  }
+
+  /**
+   * Exit code of the last doguctl process.
+   */
+  public Integer getLastExitCode() {
+    return lastExitCode;
+  }
+
+  public long getLoads() {
+    return loads;
+  }
+
+  /**
+   * Loads triggered by tokens, that did not match any loaded token.
+   */
+  public long getMismatchReloads() {
+    return mismatchReloads;
+  }
+
+  /**
+   * Failed loads, after which loading has been backing off.
+   */
+  public long getBackoffs() {
+    return backoffs;
+  }
+
+  public boolean isBackingOff() {
+    return backingOff;
+  }
+
+  public int getConsecutiveFailures() {
+    return consecutiveFailures;
+  }
+
+  public String getRetryAt() {
+    return retryAt;
+  }
+
+  /**
+   * Validations of ces tokens by outcome; all outcomes except {@code ok} are rejections.
+   */
+  public Map<String, Long> getValidations() {
+    return validations;
+  }
+}
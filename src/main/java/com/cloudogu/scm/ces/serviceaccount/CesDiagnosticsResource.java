@@ -0,0 +1,76 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import sonia.scm.config.ConfigurationPermissions;
+
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * Diagnostics of the ces authentication for administrators. The snapshot is assembled from volatile fields
+ * and counters, so reading it neither blocks nor slows down the validation of tokens. Access can be granted
+ * without admin rights with the permission {@code configuration:read,write:ces}.
+ */
+@Path(CesDiagnosticsResource.PATH)
+public class CesDiagnosticsResource {
+
+  static final String PATH = "v2/ces/diagnostics";
+  static final String PERMISSION = "ces";
+
+  private final CesAccessValidator validator;
+  private final CesMetrics metrics;
+
+  @Inject
+  public CesDiagnosticsResource(CesAccessValidator validator, CesMetrics metrics) {
+    this.validator = validator;
+    this.metrics = metrics;
+  }
+
+  @GET
+  @Path("")
+  @Produces(MediaType.APPLICATION_JSON)
+  public CesDiagnostics get() {
+    ConfigurationPermissions.read(PERMISSION).check();
+    return new CesDiagnostics(validator, metrics);
+  }
+
+  /**
+   * Starts reading the tokens again, even during a backoff. A read which is already running is not
+   * interrupted, instead its result is used.
+   */
+  @POST
+  @Path("reload")
+  public Response reload() {
+    ConfigurationPermissions.write(PERMISSION).check();
+    validator.reload();
+    return Response.accepted().build();
+  }
+}
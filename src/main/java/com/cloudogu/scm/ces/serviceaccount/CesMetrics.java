@@ -0,0 +1,198 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Metrics of the ces integration. All meters used on the request path are registered upfront, so that
+ * recording them neither allocates nor locks.
+ */
+@Singleton
+class CesMetrics {
+
+  private final MeterRegistry registry;
+  private final Map<Outcome, Counter> validations = new EnumMap<>(Outcome.class);
+  private final Counter auditWritten;
+  private final Counter auditDropped;
+
+  private volatile LoadAttempt lastLoad;
+  private volatile Integer lastExitCode;
+
+  @Inject
+  CesMetrics(MeterRegistry registry) {
+    this.registry = registry;
+    for (Outcome outcome : Outcome.values()) {
+      validations.put(outcome, Counter.builder("ces.token.validations")
+        .description("Requests with ces token by outcome of the validation")
+        .tag("outcome", outcome.tag)
+        .register(registry));
+    }
+    this.auditWritten = auditCounter(registry, "written");
+    this.auditDropped = auditCounter(registry, "dropped");
+  }
+
+  private static Counter auditCounter(MeterRegistry registry, String result) {
+    return Counter.builder("ces.audit.events")
+      .description("Audit events of service accounts by result")
+      .tag("result", result)
+      .register(registry);
+  }
+
+  /**
+   * Creates metrics, that are only kept in memory.
+   */
+  static CesMetrics inMemory() {
+    return new CesMetrics(new SimpleMeterRegistry());
+  }
+
+  void validation(Outcome outcome) {
+    validations.get(outcome).increment();
+  }
+
+  double getValidations(Outcome outcome) {
+    return validations.get(outcome).count();
+  }
+
+  /**
+   * Returns the number of validations since the start by outcome.
+   */
+  Map<String, Long> getValidationsByOutcome() {
+    Map<String, Long> counts = new LinkedHashMap<>();
+    for (Map.Entry<Outcome, Counter> entry : validations.entrySet()) {
+      counts.put(entry.getKey().tag, (long) entry.getValue().count());
+    }
+    return counts;
+  }
+
+  void auditWritten(int count) {
+    auditWritten.increment(count);
+  }
+
+  void auditDropped(long count) {
+    auditDropped.increment(count);
+  }
+
+  double getAuditDropped() {
+    return auditDropped.count();
+  }
+
+  void load(String source, boolean success, long durationNanos) {
+    Timer.builder("ces.token.loads")
+      .description("Attempts to load the ces token")
+      .tag("source", source)
+      .tag("result", success ? "success" : "failure")
+      .register(registry)
+      .record(durationNanos, TimeUnit.NANOSECONDS);
+    lastLoad = new LoadAttempt(source, success, durationNanos);
+  }
+
+  /**
+   * Returns the last attempt to read a token or a signing key or {@code null}, if nothing has been read yet.
+   */
+  LoadAttempt getLastLoad() {
+    return lastLoad;
+  }
+
+  void doguctlExit(int exitCode) {
+    Counter.builder("ces.doguctl.exits")
+      .description("Finished doguctl processes by exit code")
+      .tag("code", String.valueOf(exitCode))
+      .register(registry)
+      .increment();
+    lastExitCode = exitCode;
+  }
+
+  /**
+   * Returns the exit code of the last doguctl process or {@code null}, if doguctl has not been called yet.
+   */
+  Integer getLastExitCode() {
+    return lastExitCode;
+  }
+
+  <T> void tokenAge(T validator, ToDoubleFunction<T> ageInSeconds) {
+    Gauge.builder("ces.token.age", validator, ageInSeconds)
+      .description("Time since the ces token has been loaded")
+      .baseUnit("seconds")
+      .register(registry);
+  }
+
+  <T> void tokenReady(T validator, ToDoubleFunction<T> ready) {
+    Gauge.builder("ces.token.ready", validator, ready)
+      .description("Whether ces tokens can be validated (1) or not (0)")
+      .register(registry);
+  }
+
+  static final class LoadAttempt {
+
+    private final String source;
+    private final boolean success;
+    private final long durationNanos;
+
+    private LoadAttempt(String source, boolean success, long durationNanos) {
+      this.source = source;
+      this.success = success;
+      this.durationNanos = durationNanos;
+    }
+
+    String getSource() {
+      return source;
+    }
+
+    boolean isSuccess() {
+      return success;
+    }
+
+    long getDurationNanos() {
+      return durationNanos;
+    }
+  }
+
+  enum Outcome {
+    OK,
+    NO_TOKEN,
+    MISMATCH,
+    TOKEN_UNAVAILABLE,
+    UNTRUSTED_ADDRESS,
+    EXPIRED,
+    REPLAYED,
+    THROTTLED;
+
+    private final String tag = name().toLowerCase(Locale.ENGLISH);
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import java.time.Instant;
+
+/**
+ * Readiness of the ces token validation, see {@link CesReadinessResource}.
+ */
+public class CesReadiness {
+
+  private final boolean ready;
+  private final String loadedAt;
+  private final boolean backingOff;
+
+  CesReadiness(boolean ready, Instant loadedAt, boolean backingOff) {
+    this.ready = ready;
+    this.loadedAt = loadedAt == null ? null : loadedAt.toString();
+    this.backingOff = backingOff;
+  }
+
+  /**
+   * Whether ces tokens can be validated.
+   */
+  public boolean isReady() {
+    return ready;
+  }
+
+  /**
+   * Time of the last successful load or refresh of the tokens.
+   */
+  public String getLoadedAt() {
+    return loadedAt;
+  }
+
+  /**
+   * Whether loading is paused after failures. Loaded tokens are still served during the backoff.
+   */
+  public boolean isBackingOff() {
+    return backingOff;
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import sonia.scm.security.AllowAnonymousAccess;
+
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * Readiness check for orchestrators, which should not route ces requests to SCM-Manager before the ces
+ * tokens have been loaded. Responds with status 200, once tokens can be validated, and with status 503
+ * otherwise. The check allows anonymous access, because it is polled before ces clients can authenticate,
+ * and it starts loading the tokens, if they have not been loaded yet. Details about failed loads are left to
+ * {@link CesDiagnosticsResource}, which requires the permission to read the configuration.
+ */
+@AllowAnonymousAccess
+@Path(CesReadinessResource.PATH)
+public class CesReadinessResource {
+
+  static final String PATH = "v2/ces/ready";
+
+  private final CesAccessValidator validator;
+
+  @Inject
+  public CesReadinessResource(CesAccessValidator validator) {
+    this.validator = validator;
+  }
+
+  @GET
+  @Path("")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response ready() {
+    if (!validator.isTokenAvailable()) {
+      validator.startLoading();
+    }
+    CesReadiness readiness = new CesReadiness(
+      validator.isTokenAvailable(), validator.getLoadedAt(), validator.isBackingOff()
+    );
+    if (readiness.isReady()) {
+      return Response.ok(readiness).build();
+    }
+    return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+      .header("Retry-After", CesTokenUnavailableFilter.RETRY_AFTER_SECONDS)
+      .entity(readiness)
+      .build();
+  }
+}
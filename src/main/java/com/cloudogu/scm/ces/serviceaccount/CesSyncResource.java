@@ -0,0 +1,66 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import sonia.scm.security.PermissionPermissions;
+import sonia.scm.user.UserPermissions;
+
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * Incremental synchronization of users for the ces service accounts. The response is streamed as newline
+ * delimited json, see {@link UserSync} for the format.
+ */
+@Path(CesSyncResource.PATH)
+public class CesSyncResource {
+
+  static final String PATH = "v2/ces/sync";
+  static final String MEDIA_TYPE = "application/x-ndjson";
+
+  private final UserSync sync;
+
+  @Inject
+  public CesSyncResource(UserSync sync) {
+    this.sync = sync;
+  }
+
+  @GET
+  @Path("users")
+  @Produces(MEDIA_TYPE)
+  public Response users(@QueryParam("since") Long since) {
+    ServiceAccounts.checkCurrentSubject();
+    // checked before the response is committed, because errors while streaming can not change the status
+    UserPermissions.list().check();
+    PermissionPermissions.read().check();
+    StreamingOutput output = stream -> sync.write(since, stream);
+    return Response.ok(output, MEDIA_TYPE).build();
+  }
+}
@@ -24,9 +24,9 @@
 
 package com.cloudogu.scm.ces.serviceaccount;
 
-import org.apache.shiro.authc.AuthenticationToken;
+import org.apache.shiro.authc.RememberMeAuthenticationToken;
 
-public class CesToken implements AuthenticationToken {
+public class CesToken implements RememberMeAuthenticationToken {
 
   private final String credentials;
   private final String remoteAddress;
@@ -49,4 +49,12 @@ public class CesToken implements AuthenticationToken {
   public String getRemoteAddress() {
     return remoteAddress;
   }
+
+  /**
+   * Ces tokens are sent with every request, so the identity is never remembered.
+   */
+  @Override
+  public boolean isRememberMe() {
+    return false;
+  }
 }
@@ -0,0 +1,66 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import sonia.scm.plugin.Extension;
+
+import javax.inject.Inject;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * Starts loading the ces token in the background as soon as the plugin is initialized,
+ * so that the first request does not have to wait for doguctl, and schedules its refresh.
+ * Starts the writer of the audit trail as well.
+ */
+@Extension
+class CesTokenBootstrap implements ServletContextListener {
+
+  private final CesAccessValidator validator;
+  private final TokenFileWatcher watcher;
+  private final AuditTrail auditTrail;
+
+  @Inject
+  CesTokenBootstrap(CesAccessValidator validator, TokenFileWatcher watcher, AuditTrail auditTrail) {
+    this.validator = validator;
+    this.watcher = watcher;
+    this.auditTrail = auditTrail;
+  }
+
+  @Override
+  public void contextInitialized(ServletContextEvent sce) {
+    validator.startLoading();
+    validator.scheduleRefresh();
+    watcher.start();
+    auditTrail.start();
+  }
+
+  @Override
+  public void contextDestroyed(ServletContextEvent sce) {
+    watcher.close();
+    validator.close();
+    auditTrail.close();
+  }
+}
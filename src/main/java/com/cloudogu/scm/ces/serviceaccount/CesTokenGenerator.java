@@ -25,11 +25,13 @@
 package com.cloudogu.scm.ces.serviceaccount;
 
 import com.google.common.base.Strings;
+import org.apache.shiro.subject.support.DefaultSubjectContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import sonia.scm.plugin.Extension;
 import sonia.scm.web.WebTokenGenerator;
 
+import javax.inject.Inject;
 import javax.servlet.http.HttpServletRequest;
 
 @Extension
@@ -38,13 +40,32 @@ class CesTokenGenerator implements WebTokenGenerator {
   private static final Logger LOG = LoggerFactory.getLogger(CesTokenGenerator.class);
 
   private final String tokenHeader;
+  private final CesMetrics metrics;
+  private final TrustedNetworks trustedNetworks;
+  private final FailureThrottle throttle;
 
-  CesTokenGenerator() {
-    this(System.getenv("CES_TOKEN_HEADER"));
+  @Inject
+  CesTokenGenerator(CesConfiguration configuration, CesMetrics metrics, TrustedNetworks trustedNetworks, FailureThrottle throttle) {
+    this(configuration.getTokenHeader(), metrics, trustedNetworks, throttle);
   }
 
   CesTokenGenerator(String tokenHeader) {
+    this(tokenHeader, CesMetrics.inMemory());
+  }
+
+  CesTokenGenerator(String tokenHeader, CesMetrics metrics) {
+    this(tokenHeader, metrics, TrustedNetworks.localhost());
+  }
+
+  CesTokenGenerator(String tokenHeader, CesMetrics metrics, TrustedNetworks trustedNetworks) {
+    this(tokenHeader, metrics, trustedNetworks, new FailureThrottle(new CesConfiguration(name -> null)));
+  }
+
+  CesTokenGenerator(String tokenHeader, CesMetrics metrics, TrustedNetworks trustedNetworks, FailureThrottle throttle) {
     this.tokenHeader = tokenHeader;
+    this.metrics = metrics;
+    this.trustedNetworks = trustedNetworks;
+    this.throttle = throttle;
   }
 
   @Override
@@ -57,8 +78,22 @@ class CesTokenGenerator implements WebTokenGenerator {
     String cesToken = request.getHeader(tokenHeader);
     LOG.trace("Got value for header '{}'", tokenHeader);
     if (!Strings.isNullOrEmpty(cesToken)) {
+      String remoteAddress = request.getRemoteAddr();
+      if (!trustedNetworks.isTrusted(remoteAddress)) {
+        LOG.debug("Ignoring ces token from untrusted address");
+        metrics.validation(CesMetrics.Outcome.UNTRUSTED_ADDRESS);
+        return null;
+      }
+      if (throttle.isThrottled(remoteAddress, cesToken)) {
+        // repeated invalid tokens are not passed to the realm, so they cost neither validation nor exceptions
+        LOG.trace("Ignoring ces token, that has failed too often from {}", remoteAddress);
+        metrics.validation(CesMetrics.Outcome.THROTTLED);
+        return null;
+      }
       LOG.debug("Found ces token");
-      return new CesToken(cesToken, request.getRemoteAddr());
+      // ces clients send the token with every request, so a session would never be used again
+      request.setAttribute(DefaultSubjectContext.SESSION_CREATION_ENABLED, Boolean.FALSE);
+      return new CesToken(cesToken, remoteAddress);
     }
     return null;
   }
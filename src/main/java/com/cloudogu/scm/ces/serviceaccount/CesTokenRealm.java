@@ -27,78 +27,127 @@ package com.cloudogu.scm.ces.serviceaccount;
 import org.apache.shiro.authc.AuthenticationException;
 import org.apache.shiro.authc.AuthenticationInfo;
 import org.apache.shiro.authc.AuthenticationToken;
-import org.apache.shiro.authc.SimpleAuthenticationInfo;
 import org.apache.shiro.authc.credential.AllowAllCredentialsMatcher;
 import org.apache.shiro.authz.AuthorizationInfo;
-import org.apache.shiro.authz.SimpleAuthorizationInfo;
+import org.apache.shiro.authz.Permission;
 import org.apache.shiro.realm.AuthorizingRealm;
 import org.apache.shiro.subject.PrincipalCollection;
-import org.apache.shiro.subject.SimplePrincipalCollection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import sonia.scm.plugin.Extension;
-import sonia.scm.security.PermissionPermissions;
-import sonia.scm.user.User;
-import sonia.scm.user.UserPermissions;
 
 import javax.inject.Inject;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.google.common.base.Preconditions.checkArgument;
-import static java.util.Arrays.asList;
 
 @Extension
 public class CesTokenRealm extends AuthorizingRealm {
 
-  static final CesTokenRealmMarker MARKER = new CesTokenRealmMarker();
   static final String REALM = "CES Service Account";
 
+  private static final int MAX_RESOLVED_PERMISSIONS = 1024;
+
   private static final Logger LOG = LoggerFactory.getLogger(CesTokenRealm.class);
 
   private final CesAccessValidator validator;
+  private final CesMetrics metrics;
+  private final TrustedNetworks trustedNetworks;
+  private final FailureThrottle throttle;
+  private final Map<String, Permission> resolvedPermissions = new ConcurrentHashMap<>();
 
   @Inject
-  public CesTokenRealm(CesAccessValidator validator) {
+  public CesTokenRealm(CesAccessValidator validator, CesMetrics metrics, TrustedNetworks trustedNetworks, FailureThrottle throttle) {
     this.validator = validator;
+    this.metrics = metrics;
+    this.trustedNetworks = trustedNetworks;
+    this.throttle = throttle;
     setCredentialsMatcher(new AllowAllCredentialsMatcher());
     setAuthenticationTokenClass(CesToken.class);
   }
 
   @Override
   protected AuthorizationInfo doGetAuthorizationInfo(PrincipalCollection principals) {
-    CesTokenRealmMarker cesTokenRealmMarker = principals.oneByType(CesTokenRealmMarker.class);
-    if (cesTokenRealmMarker == MARKER) {
-      LOG.trace("Got authorization from ces realm");
-      SimpleAuthorizationInfo authorizationInfo = new SimpleAuthorizationInfo();
-      authorizationInfo.addStringPermissions(
-        asList(
-          UserPermissions.list().asShiroString(),
-          UserPermissions.create().asShiroString(),
-          UserPermissions.read("*").asShiroString(),
-          UserPermissions.delete("*").asShiroString(),
-          PermissionPermissions.assign().asShiroString(),
-          PermissionPermissions.read().asShiroString()
-        ));
-      return authorizationInfo;
+    ServiceAccount account = getServiceAccount(principals);
+    if (account != null) {
+      LOG.trace("Got authorization for {} from ces realm", account);
+      return account.getAuthorizationInfo();
     }
     return null;
   }
 
+  /**
+   * The authorization info of each service account is computed once, so it is returned directly
+   * without consulting the authorization cache.
+   */
+  @Override
+  protected AuthorizationInfo getAuthorizationInfo(PrincipalCollection principals) {
+    if (principals == null) {
+      return null;
+    }
+    return doGetAuthorizationInfo(principals);
+  }
+
+  @Override
+  public boolean isPermitted(PrincipalCollection principals, String permission) {
+    ServiceAccount account = getServiceAccount(principals);
+    if (account == null) {
+      return false;
+    }
+    return account.getAuthorizationInfo().implies(resolve(permission));
+  }
+
+  @Override
+  public boolean isPermitted(PrincipalCollection principals, Permission permission) {
+    ServiceAccount account = getServiceAccount(principals);
+    return account != null && account.getAuthorizationInfo().implies(permission);
+  }
+
+  @Override
+  protected boolean isPermitted(Permission permission, AuthorizationInfo info) {
+    if (info instanceof CesAuthorizationInfo) {
+      return ((CesAuthorizationInfo) info).implies(permission);
+    }
+    return super.isPermitted(permission, info);
+  }
+
+  private ServiceAccount getServiceAccount(PrincipalCollection principals) {
+    if (principals == null) {
+      return null;
+    }
+    return principals.oneByType(ServiceAccount.class);
+  }
+
+  private Permission resolve(String permission) {
+    Permission resolved = resolvedPermissions.get(permission);
+    if (resolved == null) {
+      resolved = getPermissionResolver().resolvePermission(permission);
+      if (resolvedPermissions.size() < MAX_RESOLVED_PERMISSIONS) {
+        resolvedPermissions.putIfAbsent(permission, resolved);
+      }
+    }
+    return resolved;
+  }
+
   @Override
   protected AuthenticationInfo doGetAuthenticationInfo(AuthenticationToken token) throws AuthenticationException {
     checkArgument(token instanceof CesToken, "%s is required", CesToken.class);
     CesToken cesToken = (CesToken) token;
-    validator.checkToken(cesToken.getCredentials());
-    if (!cesToken.getRemoteAddress().equals("127.0.0.1")) {
-      LOG.debug("Rejecting ces token from non-localhost");
+    if (!trustedNetworks.isTrusted(cesToken.getRemoteAddress())) {
+      LOG.debug("Rejecting ces token from untrusted address");
+      metrics.validation(CesMetrics.Outcome.UNTRUSTED_ADDRESS);
       return null;
     }
-    SimplePrincipalCollection principalCollection = new SimplePrincipalCollection("ces-service-account", REALM);
-    principalCollection.add(MARKER, REALM);
-    principalCollection.add(new User("ces-service-account", "CES Service Account User", null), REALM);
-    LOG.debug("Creating authentication for ces realm");
-    return new SimpleAuthenticationInfo(principalCollection, null);
-  }
-
-  static class CesTokenRealmMarker {
+    ServiceAccount account;
+    try {
+      account = validator.checkToken(cesToken.getCredentials());
+    } catch (InvalidTokenException e) {
+      throttle.recordFailure(cesToken.getRemoteAddress(), cesToken.getCredentials());
+      throw e;
+    }
+    throttle.recordSuccess(cesToken.getRemoteAddress(), cesToken.getCredentials());
+    LOG.debug("Creating authentication for {} in ces realm", account);
+    return account.getAuthenticationInfo();
   }
 }
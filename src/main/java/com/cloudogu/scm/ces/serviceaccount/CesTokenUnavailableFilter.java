@@ -0,0 +1,85 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import com.google.common.base.Strings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.filter.Filters;
+import sonia.scm.filter.WebElement;
+import sonia.scm.web.filter.HttpFilter;
+
+import javax.annotation.Priority;
+import javax.inject.Inject;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Rejects requests with a ces token with status 503, as long as the configured token
+ * has not been loaded and the startup mode {@link CesConfiguration.StartupMode#FAIL_FAST} is configured.
+ */
+@Priority(Filters.PRIORITY_AUTHENTICATION - 1)
+@WebElement(Filters.PATTERN_ALL)
+class CesTokenUnavailableFilter extends HttpFilter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CesTokenUnavailableFilter.class);
+
+  static final String RETRY_AFTER_SECONDS = "5";
+
+  private final CesConfiguration configuration;
+  private final CesAccessValidator validator;
+  private final CesMetrics metrics;
+
+  @Inject
+  CesTokenUnavailableFilter(CesConfiguration configuration, CesAccessValidator validator, CesMetrics metrics) {
+    this.configuration = configuration;
+    this.validator = validator;
+    this.metrics = metrics;
+  }
+
+  @Override
+  protected void doFilter(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws IOException, ServletException {
+    if (isRejected(request)) {
+      LOG.debug("ces token is not available yet; rejecting request with status 503");
+      metrics.validation(CesMetrics.Outcome.TOKEN_UNAVAILABLE);
+      validator.startLoading();
+      response.setHeader("Retry-After", RETRY_AFTER_SECONDS);
+      response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "ces token is not available yet");
+      return;
+    }
+    chain.doFilter(request, response);
+  }
+
+  private boolean isRejected(HttpServletRequest request) {
+    String tokenHeader = configuration.getTokenHeader();
+    return configuration.getStartupMode() == CesConfiguration.StartupMode.FAIL_FAST
+      && tokenHeader != null
+      && !Strings.isNullOrEmpty(request.getHeader(tokenHeader))
+      && !validator.isTokenAvailable();
+  }
+}
@@ -0,0 +1,165 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import sonia.scm.plugin.Extension;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Reads the token directly from a local config file, which is configured with {@code CES_DOGU_CONFIG_FILE}.
+ * The file is a yaml document of nested mappings; keys with slashes like {@code serviceaccount/token} address
+ * nested entries. Only plain and quoted scalar values are supported, comments after values are ignored.
+ * <p>
+ * The values are used as they are stored. Values of the dogu config, which {@code doguctl config --encrypted}
+ * reads, are encrypted with the key of the dogu and can therefore not be read with this source; it is meant
+ * for files, in which the token is provisioned as plain text.
+ */
+@Extension
+class DoguConfigTokenSource implements TokenSource {
+
+  static final String NAME = "plaintext-config";
+
+  private final Path configFile;
+
+  @Inject
+  DoguConfigTokenSource(CesConfiguration configuration) {
+    this(configuration.getDoguConfigFile());
+  }
+
+  DoguConfigTokenSource(Path configFile) {
+    this.configFile = configFile;
+  }
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public String read(String key) throws IOException {
+    if (configFile == null) {
+      throw new IOException("no dogu config file configured");
+    }
+    String token = parse(Files.readAllLines(configFile, UTF_8)).get(key);
+    if (token == null || token.isEmpty()) {
+      throw new IOException("no value found for key " + key + " in " + configFile);
+    }
+    return token;
+  }
+
+  @Override
+  public Optional<Path> getWatchPath(String key) {
+    return Optional.ofNullable(configFile);
+  }
+
+  static Map<String, String> parse(List<String> lines) {
+    Map<String, String> values = new HashMap<>();
+    Deque<Entry> parents = new ArrayDeque<>();
+    for (String line : lines) {
+      String content = line.trim();
+      if (content.isEmpty() || content.startsWith("#") || content.equals("---")) {
+        continue;
+      }
+      int separator = content.indexOf(':');
+      if (separator < 0) {
+        continue;
+      }
+      int indent = line.indexOf(content.charAt(0));
+      while (!parents.isEmpty() && parents.peek().indent >= indent) {
+        parents.pop();
+      }
+      String name = unquote(content.substring(0, separator).trim());
+      String path = parents.isEmpty() ? name : parents.peek().path + "/" + name;
+      String value = scalar(content.substring(separator + 1).trim());
+      if (value == null) {
+        parents.push(new Entry(indent, path));
+      } else if (!value.isEmpty()) {
+        values.put(path, value);
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Returns the value without quotes and trailing comment, {@code null} if there is no value and an empty
+   * string for quoted values, that are not closed or followed by anything else than a comment.
+   */
+  private static String scalar(String value) {
+    if (value.isEmpty() || value.charAt(0) == '#') {
+      return null;
+    }
+    char first = value.charAt(0);
+    if (first == '"' || first == '\'') {
+      int end = value.indexOf(first, 1);
+      if (end > 0 && isEmptyOrComment(value.substring(end + 1).trim())) {
+        return value.substring(1, end);
+      }
+      return "";
+    }
+    for (int i = 1; i < value.length(); ++i) {
+      // like in yaml, a comment starts with a '#' after whitespace
+      if (value.charAt(i) == '#' && Character.isWhitespace(value.charAt(i - 1))) {
+        return value.substring(0, i).trim();
+      }
+    }
+    return value;
+  }
+
+  private static boolean isEmptyOrComment(String rest) {
+    return rest.isEmpty() || rest.charAt(0) == '#';
+  }
+
+  private static String unquote(String value) {
+    if (value.length() >= 2) {
+      char first = value.charAt(0);
+      if ((first == '"' || first == '\'') && value.charAt(value.length() - 1) == first) {
+        return value.substring(1, value.length() - 1);
+      }
+    }
+    return value;
+  }
+
+  private static class Entry {
+    private final int indent;
+    private final String path;
+
+    Entry(int indent, String path) {
+      this.indent = indent;
+      this.path = path;
+    }
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.plugin.Extension;
+
+import javax.inject.Inject;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.cloudogu.scm.ces.serviceaccount.Threads.daemon;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Reads the token with {@code doguctl config --encrypted}.
+ */
+@Extension
+class DoguctlTokenSource implements TokenSource {
+
+  static final String NAME = "doguctl";
+
+  private static final Logger LOG = LoggerFactory.getLogger(DoguctlTokenSource.class);
+
+  private final Runtime runtime;
+  private final String doguctl;
+  private final Duration loadTimeout;
+  private final CesMetrics metrics;
+  private final ExecutorService errorDrainer = Executors.newCachedThreadPool(daemon("ces-doguctl-stderr-%d"));
+  private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(daemon("ces-doguctl-watchdog"));
+
+  @Inject
+  DoguctlTokenSource(CesConfiguration configuration, CesMetrics metrics) {
+    this(Runtime.getRuntime(), configuration, metrics);
+  }
+
+  DoguctlTokenSource(Runtime runtime, CesConfiguration configuration) {
+    this(runtime, configuration, CesMetrics.inMemory());
+  }
+
+  DoguctlTokenSource(Runtime runtime, CesConfiguration configuration, CesMetrics metrics) {
+    this.runtime = runtime;
+    this.doguctl = configuration.getDoguctl();
+    this.loadTimeout = configuration.getLoadTimeout();
+    this.metrics = metrics;
+  }
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public String read(String key) throws IOException {
+    Process process = runtime.exec(new String[]{doguctl, "config", "--encrypted", key});
+    LOG.trace("Started process");
+    ScheduledFuture<?> deadline = watchdog.schedule(() -> destroy(process), loadTimeout.toMillis(), TimeUnit.MILLISECONDS);
+    try {
+      process.getOutputStream().close();
+      LOG.trace("Closed out");
+      drainErrorStream(process);
+      return handleProcessOutput(process);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("thread was interrupted while waiting for doguctl");
+    } finally {
+      deadline.cancel(false);
+    }
+  }
+
+  private void drainErrorStream(Process process) {
+    InputStream errorStream = process.getErrorStream();
+    errorDrainer.execute(() -> {
+      try (BufferedReader reader = new BufferedReader(new InputStreamReader(errorStream, UTF_8))) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          LOG.warn("doguctl: {}", line);
+        }
+      } catch (IOException e) {
+        LOG.debug("Could not read error stream of doguctl", e);
+      }
+    });
+  }
+
+  private void destroy(Process process) {
+    LOG.error("doguctl did not finish within {}; destroying process", loadTimeout);
+    process.destroyForcibly();
+  }
+
+  private String handleProcessOutput(Process process) throws IOException, InterruptedException {
+    try (InputStream inputStream = process.getInputStream()) {
+      LOG.trace("Got input");
+      String processOut = new BufferedReader(new InputStreamReader(inputStream, UTF_8)).readLine();
+      int exitValue = process.waitFor();
+      metrics.doguctlExit(exitValue);
+      if (exitValue != 0) {
+        throw new IOException("got non-zero exit value (" + exitValue + ") from doguctl call");
+      }
+      if (processOut == null) {
+        throw new IOException("doguctl returned no value");
+      }
+      return processOut;
+    }
+  }
+
+  @Override
+  public void close() {
+    errorDrainer.shutdownNow();
+    watchdog.shutdownNow();
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
+
+/**
+ * Counts failed validations of ces tokens per remote address and presented token, so that clients, which
+ * repeat an invalid token, can be rejected before their requests reach the realm. The counters are striped
+ * over a fixed array and replaced with compare and set, so neither memory nor locking depends on the number of
+ * clients. Every stripe remembers the address and the digest of the token it counts, so clients sharing a
+ * stripe never share a counter: a failure of another client takes the stripe over, unless the stripe is
+ * throttling already. Each count is halved after every decay interval. Tokens of the current snapshot are
+ * never throttled.
+ */
+@Singleton
+class FailureThrottle {
+
+  private static final int COUNT_BITS = 20;
+  private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+  private final int threshold;
+  private final long decayMillis;
+  private final Clock clock;
+  private final Predicate<String> knownTokens;
+  private final AtomicReferenceArray<Stripe> stripes;
+  private final AtomicInteger occupied = new AtomicInteger();
+  private final int mask;
+  private final int seed = new SecureRandom().nextInt();
+
+  @Inject
+  FailureThrottle(CesConfiguration configuration, CesAccessValidator validator) {
+    this(configuration, validator::isKnownToken);
+  }
+
+  FailureThrottle(CesConfiguration configuration) {
+    this(configuration, token -> false);
+  }
+
+  private FailureThrottle(CesConfiguration configuration, Predicate<String> knownTokens) {
+    this(
+      configuration.getFailureThreshold(),
+      configuration.getFailureDecay(),
+      configuration.getFailureStripes(),
+      Clock.systemUTC(),
+      knownTokens
+    );
+  }
+
+  FailureThrottle(int threshold, Duration decay, int stripes, Clock clock) {
+    this(threshold, decay, stripes, clock, token -> false);
+  }
+
+  FailureThrottle(int threshold, Duration decay, int stripes, Clock clock, Predicate<String> knownTokens) {
+    this.threshold = threshold;
+    this.decayMillis = Math.max(1, decay.toMillis());
+    this.clock = clock;
+    this.knownTokens = knownTokens;
+    int size = Integer.highestOneBit(Math.max(1, stripes - 1)) * 2;
+    this.stripes = new AtomicReferenceArray<>(size);
+    this.mask = size - 1;
+  }
+
+  /**
+   * Returns {@code true}, if the token has failed from the address at least as often as the threshold allows.
+   */
+  boolean isThrottled(String remoteAddress, String token) {
+    // avoid computing the digest for the common case without any failures
+    if (occupied.get() == 0) {
+      return false;
+    }
+    byte[] digest = TokenDigest.of(token);
+    int index = index(remoteAddress, digest);
+    Stripe stripe = stripes.get(index);
+    if (stripe == null || !stripe.matches(remoteAddress, digest)) {
+      return false;
+    }
+    long count = stripe.count(epoch());
+    if (count == 0) {
+      release(index, stripe);
+      return false;
+    }
+    return count >= threshold && !knownTokens.test(token);
+  }
+
+  void recordFailure(String remoteAddress, String token) {
+    byte[] digest = TokenDigest.of(token);
+    int index = index(remoteAddress, digest);
+    long epoch = epoch();
+    while (true) {
+      Stripe current = stripes.get(index);
+      Stripe next;
+      if (current != null && current.matches(remoteAddress, digest)) {
+        next = current.increment(epoch);
+      } else if (current == null || current.count(epoch) < threshold) {
+        next = new Stripe(remoteAddress, digest.clone(), epoch, 1);
+      } else {
+        // another client is throttled by this stripe, so it is kept until its count has decayed
+        return;
+      }
+      if (stripes.compareAndSet(index, current, next)) {
+        if (current == null) {
+          occupied.incrementAndGet();
+        }
+        return;
+      }
+    }
+  }
+
+  void recordSuccess(String remoteAddress, String token) {
+    if (occupied.get() == 0) {
+      return;
+    }
+    byte[] digest = TokenDigest.of(token);
+    int index = index(remoteAddress, digest);
+    Stripe stripe = stripes.get(index);
+    if (stripe != null && stripe.matches(remoteAddress, digest)) {
+      release(index, stripe);
+    }
+  }
+
+  private void release(int index, Stripe stripe) {
+    if (stripes.compareAndSet(index, stripe, null)) {
+      occupied.decrementAndGet();
+    }
+  }
+
+  private long epoch() {
+    return clock.millis() / decayMillis;
+  }
+
+  private int index(String remoteAddress, byte[] digest) {
+    // the digest is uniformly distributed, the seed keeps the address part from being predictable
+    int hash = (digest[0] & 0xff) << 24 | (digest[1] & 0xff) << 16 | (digest[2] & 0xff) << 8 | digest[3] & 0xff;
+    hash ^= seed * 31 + remoteAddress.hashCode();
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    return hash & mask;
+  }
+
+  private static final class Stripe {
+
+    private final String remoteAddress;
+    private final byte[] digest;
+    private final long state;
+
+    private Stripe(String remoteAddress, byte[] digest, long epoch, long count) {
+      this.remoteAddress = remoteAddress;
+      this.digest = digest;
+      this.state = epoch << COUNT_BITS | count;
+    }
+
+    private boolean matches(String address, byte[] tokenDigest) {
+      return remoteAddress.equals(address) && TokenDigest.isEqual(digest, tokenDigest);
+    }
+
+    private long count(long epoch) {
+      long elapsed = epoch - (state >>> COUNT_BITS);
+      if (elapsed >= COUNT_BITS) {
+        return 0;
+      }
+      return (state & COUNT_MASK) >>> Math.max(0, elapsed);
+    }
+
+    private Stripe increment(long epoch) {
+      return new Stripe(remoteAddress, digest, epoch, Math.min(count(epoch) + 1, COUNT_MASK));
+    }
+  }
+}
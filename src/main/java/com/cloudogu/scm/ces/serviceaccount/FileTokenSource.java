@@ -0,0 +1,78 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import sonia.scm.plugin.Extension;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Reads the token from a mounted secret file. The configuration key is resolved as path relative to the
+ * directory configured with {@code CES_TOKEN_DIRECTORY}.
+ */
+@Extension
+class FileTokenSource implements TokenSource {
+
+  static final String NAME = "file";
+
+  private final Path directory;
+
+  @Inject
+  FileTokenSource(CesConfiguration configuration) {
+    this(configuration.getTokenDirectory());
+  }
+
+  FileTokenSource(Path directory) {
+    this.directory = directory;
+  }
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public String read(String key) throws IOException {
+    if (directory == null) {
+      throw new IOException("no token directory configured");
+    }
+    String token = new String(Files.readAllBytes(directory.resolve(key)), UTF_8).trim();
+    if (token.isEmpty()) {
+      throw new IOException("token file for key " + key + " is empty");
+    }
+    return token;
+  }
+
+  @Override
+  public Optional<Path> getWatchPath(String key) {
+    return Optional.ofNullable(directory).map(d -> d.resolve(key));
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import org.apache.shiro.subject.PrincipalCollection;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Principal collection that cannot be modified after its creation, so that a single instance can be shared
+ * by all subjects authenticated with the same ces token. Because it is no
+ * {@link org.apache.shiro.subject.MutablePrincipalCollection}, Shiro copies it instead of modifying it,
+ * whenever principals have to be merged.
+ */
+@SuppressWarnings("rawtypes")
+final class ImmutablePrincipalCollection implements PrincipalCollection {
+
+  private static final long serialVersionUID = 1L;
+
+  private final SimplePrincipalCollection principals;
+
+  private ImmutablePrincipalCollection(SimplePrincipalCollection principals) {
+    this.principals = principals;
+  }
+
+  static ImmutablePrincipalCollection of(String realm, Object primaryPrincipal, Object... principals) {
+    SimplePrincipalCollection collection = new SimplePrincipalCollection(primaryPrincipal, realm);
+    for (Object principal : principals) {
+      collection.add(principal, realm);
+    }
+    return new ImmutablePrincipalCollection(collection);
+  }
+
+  @Override
+  public Object getPrimaryPrincipal() {
+    return principals.getPrimaryPrincipal();
+  }
+
+  @Override
+  public <T> T oneByType(Class<T> type) {
+    return principals.oneByType(type);
+  }
+
+  @Override
+  public <T> Collection<T> byType(Class<T> type) {
+    return principals.byType(type);
+  }
+
+  @Override
+  public List asList() {
+    return principals.asList();
+  }
+
+  @Override
+  public Set asSet() {
+    return principals.asSet();
+  }
+
+  @Override
+  public Collection fromRealm(String realmName) {
+    return principals.fromRealm(realmName);
+  }
+
+  @Override
+  public Set<String> getRealmNames() {
+    return principals.getRealmNames();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return principals.isEmpty();
+  }
+
+  @Override
+  public Iterator iterator() {
+    return asList().iterator();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    return o instanceof ImmutablePrincipalCollection
+      && principals.equals(((ImmutablePrincipalCollection) o).principals);
+  }
+
+  @Override
+  public int hashCode() {
+    return principals.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return principals.toString();
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import java.util.Arrays;
+
+/**
+ * Binary trie over the bits of ip addresses. Each inserted network marks the node at the end of its prefix,
+ * so a lookup walks at most as many nodes as the address has bits, independent of the number of networks.
+ */
+final class PrefixTrie {
+
+  private int[] zero = new int[64];
+  private int[] one = new int[64];
+  private boolean[] terminal = new boolean[64];
+  private int size = 1;
+
+  void insert(long high, long low, int prefixLength) {
+    int node = 0;
+    for (int bit = 0; bit < prefixLength; ++bit) {
+      if (terminal[node]) {
+        return;
+      }
+      boolean set = bit(high, low, bit);
+      int child = set ? one[node] : zero[node];
+      if (child == 0) {
+        // allocate before picking the array, because growing replaces the arrays
+        child = allocate();
+        if (set) {
+          one[node] = child;
+        } else {
+          zero[node] = child;
+        }
+      }
+      node = child;
+    }
+    terminal[node] = true;
+  }
+
+  boolean matches(long high, long low, int length) {
+    int node = 0;
+    for (int bit = 0; bit < length; ++bit) {
+      if (terminal[node]) {
+        return true;
+      }
+      node = bit(high, low, bit) ? one[node] : zero[node];
+      if (node == 0) {
+        return false;
+      }
+    }
+    return terminal[node];
+  }
+
+  boolean isEmpty() {
+    return size == 1 && !terminal[0];
+  }
+
+  /**
+   * Releases the capacity reserved for further inserts.
+   */
+  void trim() {
+    zero = Arrays.copyOf(zero, size);
+    one = Arrays.copyOf(one, size);
+    terminal = Arrays.copyOf(terminal, size);
+  }
+
+  private int allocate() {
+    if (size == zero.length) {
+      int capacity = size * 2;
+      zero = Arrays.copyOf(zero, capacity);
+      one = Arrays.copyOf(one, capacity);
+      terminal = Arrays.copyOf(terminal, capacity);
+    }
+    return size++;
+  }
+
+  private static boolean bit(long high, long low, int bit) {
+    if (bit < 64) {
+      return (high >>> (63 - bit) & 1) == 1;
+    }
+    return (low >>> (127 - bit) & 1) == 1;
+  }
+}
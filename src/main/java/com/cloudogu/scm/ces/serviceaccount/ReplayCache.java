@@ -0,0 +1,72 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the nonces of single use tokens until the tokens expire. The number of remembered nonces is
+ * bounded; if the cache is full of unexpired nonces, further tokens are rejected rather than forgetting
+ * nonces, which could be replayed afterwards.
+ */
+final class ReplayCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ReplayCache.class);
+
+  private final int maximumSize;
+  private final Map<String, Long> nonces = new ConcurrentHashMap<>();
+
+  ReplayCache(int maximumSize) {
+    this.maximumSize = maximumSize;
+  }
+
+  /**
+   * Records the use of the nonce until the given expiry.
+   *
+   * @return {@code true}, if the nonce has not been used before and could be recorded
+   */
+  boolean markUsed(String nonce, long expiresAt, long now) {
+    if (nonces.size() >= maximumSize) {
+      nonces.values().removeIf(expiry -> expiry <= now);
+      if (nonces.size() >= maximumSize) {
+        LOG.warn("Replay cache is full with {} unexpired nonces; rejecting single use token", nonces.size());
+        return false;
+      }
+    }
+    Long previous = nonces.putIfAbsent(nonce, expiresAt);
+    if (previous == null) {
+      return true;
+    }
+    return previous <= now && nonces.replace(nonce, previous, expiresAt);
+  }
+
+  int size() {
+    return nonces.size();
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded ring buffer for many producers and a single consumer. Producers claim a slot with compare and set
+ * and never block; if the buffer is full, {@link #offer(Object)} fails immediately. Only one thread at a time
+ * may {@link #drain(List, int)} the buffer.
+ */
+final class RingBuffer<E> {
+
+  private final AtomicReferenceArray<E> slots;
+  private final int capacity;
+  private final int mask;
+  private final AtomicLong tail = new AtomicLong();
+  private volatile long head;
+
+  RingBuffer(int capacity) {
+    this.capacity = Integer.highestOneBit(Math.max(1, capacity - 1)) * 2;
+    this.mask = this.capacity - 1;
+    this.slots = new AtomicReferenceArray<>(this.capacity);
+  }
+
+  /**
+   * Appends the element, if the buffer is not full.
+   *
+   * @return {@code false}, if the buffer is full
+   */
+  boolean offer(E element) {
+    while (true) {
+      long claimed = tail.get();
+      if (claimed - head >= capacity) {
+        return false;
+      }
+      if (tail.compareAndSet(claimed, claimed + 1)) {
+        slots.set((int) claimed & mask, element);
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Moves up to {@code max} elements in order into the target. Elements of slots, which have been claimed but
+   * not yet written, are left for the next call.
+   *
+   * @return number of drained elements
+   */
+  int drain(List<E> target, int max) {
+    long next = head;
+    int drained = 0;
+    while (drained < max) {
+      int index = (int) next & mask;
+      E element = slots.get(index);
+      if (element == null) {
+        break;
+      }
+      slots.set(index, null);
+      target.add(element);
+      ++next;
+      ++drained;
+    }
+    // publishing the head after clearing the slots makes them available to the producers again
+    head = next;
+    return drained;
+  }
+
+  int size() {
+    return (int) (tail.get() - head);
+  }
+
+  int capacity() {
+    return capacity;
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import org.apache.shiro.authc.AuthenticationInfo;
+import sonia.scm.user.User;
+
+import java.util.Collection;
+
+/**
+ * Service account, that can be authenticated with a ces token. The authentication and authorization info of
+ * the account are computed once and shared by all requests of the account. The account itself is part of
+ * its principals, so that the realm can find the permissions of a subject without any lookup.
+ */
+final class ServiceAccount {
+
+  private final String name;
+  private final String displayName;
+  private final String configurationKey;
+  private final AuthenticationInfo authenticationInfo;
+  private final CesAuthorizationInfo authorizationInfo;
+
+  ServiceAccount(String name, String displayName, String configurationKey, Collection<String> permissions) {
+    this.name = name;
+    this.displayName = displayName;
+    this.configurationKey = configurationKey;
+    this.authenticationInfo = new CesAuthenticationInfo(
+      ImmutablePrincipalCollection.of(
+        CesTokenRealm.REALM,
+        name,
+        this,
+        new User(name, displayName, null)
+      )
+    );
+    this.authorizationInfo = new CesAuthorizationInfo(permissions);
+  }
+
+  String getName() {
+    return name;
+  }
+
+  /**
+   * Key of the token of this account in the configured {@link TokenSource}.
+   */
+  String getConfigurationKey() {
+    return configurationKey;
+  }
+
+  AuthenticationInfo getAuthenticationInfo() {
+    return authenticationInfo;
+  }
+
+  CesAuthorizationInfo getAuthorizationInfo() {
+    return authorizationInfo;
+  }
+
+  /**
+   * Creates an account with the same name, that is restricted to the given permissions. The permissions have
+   * to be implied by the permissions of this account.
+   */
+  ServiceAccount withScope(Collection<String> permissions) {
+    return new ServiceAccount(name, displayName, configurationKey, permissions);
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import com.github.legman.Subscribe;
+import org.apache.shiro.subject.PrincipalCollection;
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.util.ThreadContext;
+import sonia.scm.EagerSingleton;
+import sonia.scm.HandlerEventType;
+import sonia.scm.plugin.Extension;
+import sonia.scm.security.AssignedPermission;
+import sonia.scm.security.AssignedPermissionEvent;
+import sonia.scm.user.UserEvent;
+
+import javax.inject.Inject;
+import java.time.Clock;
+import java.util.Locale;
+
+/**
+ * Records changes of users and permissions, which have been made by a service account, in the
+ * {@link AuditTrail}. The events are received synchronously, so the subject of the request is still bound
+ * to the current thread.
+ */
+@Extension
+@EagerSingleton
+public class ServiceAccountAuditor {
+
+  private final AuditTrail trail;
+  private final Clock clock;
+
+  @Inject
+  ServiceAccountAuditor(AuditTrail trail) {
+    this(trail, Clock.systemUTC());
+  }
+
+  ServiceAccountAuditor(AuditTrail trail, Clock clock) {
+    this.trail = trail;
+    this.clock = clock;
+  }
+
+  @Subscribe(async = false)
+  public void onUserEvent(UserEvent event) {
+    if (!event.getEventType().isPost()) {
+      return;
+    }
+    record("user." + action(event.getEventType()), event.getItem().getName(), null);
+  }
+
+  @Subscribe(async = false)
+  public void onPermissionEvent(AssignedPermissionEvent event) {
+    if (!event.getEventType().isPost()) {
+      return;
+    }
+    AssignedPermission permission = event.getPermission();
+    String prefix = permission.isGroupPermission() ? "group-permission." : "permission.";
+    record(prefix + action(event.getEventType()), permission.getName(), permission.getPermission().getValue());
+  }
+
+  private void record(String action, String target, String permission) {
+    ServiceAccount account = currentServiceAccount();
+    if (account != null) {
+      trail.record(new AuditEvent(clock.millis(), account.getName(), action, target, permission));
+    }
+  }
+
+  private static String action(HandlerEventType type) {
+    return type.name().toLowerCase(Locale.ENGLISH);
+  }
+
+  private static ServiceAccount currentServiceAccount() {
+    // events may be fired outside of requests, where no subject is bound
+    Subject subject = ThreadContext.getSubject();
+    if (subject == null) {
+      return null;
+    }
+    PrincipalCollection principals = subject.getPrincipals();
+    return principals == null ? null : principals.oneByType(ServiceAccount.class);
+  }
+}
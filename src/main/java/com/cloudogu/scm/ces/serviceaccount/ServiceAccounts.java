@@ -0,0 +1,149 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.authz.AuthorizationException;
+import org.apache.shiro.subject.PrincipalCollection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.security.PermissionPermissions;
+import sonia.scm.user.UserPermissions;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.util.Arrays.asList;
+
+/**
+ * All service accounts, which may authenticate with a ces token. The default ces service account uses the
+ * token from {@code CES_TOKEN_CONFIGURATION_KEY}, further accounts are configured with
+ * {@code CES_SERVICE_ACCOUNTS}.
+ */
+@Singleton
+class ServiceAccounts {
+
+  static final String DEFAULT_NAME = "ces-service-account";
+
+  static final List<String> DEFAULT_PERMISSIONS = Collections.unmodifiableList(asList(
+    UserPermissions.list().asShiroString(),
+    UserPermissions.create().asShiroString(),
+    UserPermissions.read("*").asShiroString(),
+    UserPermissions.delete("*").asShiroString(),
+    PermissionPermissions.assign().asShiroString(),
+    PermissionPermissions.read().asShiroString()
+  ));
+
+  private static final Logger LOG = LoggerFactory.getLogger(ServiceAccounts.class);
+
+  private final List<ServiceAccount> accounts;
+  private final Map<String, ServiceAccount> accountsByName = new HashMap<>();
+
+  @Inject
+  ServiceAccounts(CesConfiguration configuration) {
+    this(create(configuration));
+  }
+
+  ServiceAccounts(Collection<ServiceAccount> accounts) {
+    this.accounts = Collections.unmodifiableList(new ArrayList<>(accounts));
+    for (ServiceAccount account : accounts) {
+      accountsByName.putIfAbsent(account.getName(), account);
+    }
+  }
+
+  /**
+   * Creates the registry with the default ces service account only.
+   */
+  static ServiceAccounts single(String configurationKey) {
+    if (configurationKey == null) {
+      return new ServiceAccounts(Collections.emptyList());
+    }
+    return new ServiceAccounts(Collections.singletonList(createDefault(configurationKey)));
+  }
+
+  static ServiceAccount createDefault(String configurationKey) {
+    return new ServiceAccount(DEFAULT_NAME, "CES Service Account User", configurationKey, DEFAULT_PERMISSIONS);
+  }
+
+  private static List<ServiceAccount> create(CesConfiguration configuration) {
+    List<ServiceAccount> accounts = new ArrayList<>();
+    Set<String> names = new HashSet<>();
+    String configurationKey = configuration.getConfigurationKey();
+    if (configurationKey != null) {
+      accounts.add(createDefault(configurationKey));
+      names.add(DEFAULT_NAME);
+    }
+    for (CesConfiguration.Account account : configuration.getAccounts()) {
+      if (!names.add(account.getName())) {
+        LOG.error("Service account '{}' is configured more than once; ignoring duplicate", account.getName());
+        continue;
+      }
+      accounts.add(new ServiceAccount(
+        account.getName(), "CES Service Account " + account.getName(), account.getConfigurationKey(), account.getPermissions()
+      ));
+    }
+    if (accounts.isEmpty()) {
+      LOG.error("Could not read name of configuration key for token from environment");
+    }
+    return accounts;
+  }
+
+  /**
+   * Ensures that the current subject has been authenticated as one of the service accounts.
+   *
+   * @throws AuthorizationException for all other subjects
+   */
+  static ServiceAccount checkCurrentSubject() {
+    PrincipalCollection principals = SecurityUtils.getSubject().getPrincipals();
+    ServiceAccount account = principals == null ? null : principals.oneByType(ServiceAccount.class);
+    if (account == null) {
+      throw new AuthorizationException("only available for ces service accounts");
+    }
+    return account;
+  }
+
+  List<ServiceAccount> getAll() {
+    return accounts;
+  }
+
+  /**
+   * Returns the account with the given name or {@code null}, if there is no such account.
+   */
+  ServiceAccount get(String name) {
+    return accountsByName.get(name);
+  }
+
+  boolean isEmpty() {
+    return accounts.isEmpty();
+  }
+}
@@ -0,0 +1,310 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import org.apache.shiro.authz.permission.WildcardPermission;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Verifies short-lived signed ces tokens in memory, without any lookup of the token itself. A signed token
+ * has the form {@code ces1.<payload>.<signature>}, with both parts encoded as base64url without padding. The
+ * payload consists of the following lines in utf-8:
+ *
+ * <ol>
+ *   <li>name of the service account</li>
+ *   <li>expiry in seconds since the epoch</li>
+ *   <li>nonce; if present, the token can be used only once</li>
+ *   <li>scope as permissions separated by spaces; if present, the account is restricted to these permissions</li>
+ * </ol>
+ *
+ * The signature is the hmac-sha256 of {@code ces1.<payload>} with the signing key of the configured
+ * {@link TokenSource}. Each thread uses its own {@link Mac}, so verification needs no locking.
+ */
+final class SignedTokenVerifier {
+
+  static final String PREFIX = "ces1.";
+
+  private static final Logger LOG = LoggerFactory.getLogger(SignedTokenVerifier.class);
+
+  private static final String ALGORITHM = "HmacSHA256";
+  private static final int SIGNATURE_LENGTH = 32;
+  private static final int MAX_SCOPED_ACCOUNTS = 1024;
+
+  private static final Splitter LINE_SPLITTER = Splitter.on('\n');
+  private static final Splitter SCOPE_SPLITTER = Splitter.on(' ').omitEmptyStrings();
+
+  private final ServiceAccounts accounts;
+  private final Clock clock;
+  private final CesMetrics metrics;
+  private final long maxLifetime;
+  private final ReplayCache replayCache;
+
+  private final ThreadLocal<Signer> signers = ThreadLocal.withInitial(Signer::new);
+  private final Map<String, ServiceAccount> scopedAccounts = new ConcurrentHashMap<>();
+  private volatile SecretKeySpec key;
+
+  SignedTokenVerifier(ServiceAccounts accounts, CesConfiguration configuration, Clock clock, CesMetrics metrics) {
+    this.accounts = accounts;
+    this.clock = clock;
+    this.metrics = metrics;
+    this.maxLifetime = configuration.getSignedTokenMaxLifetime().getSeconds();
+    this.replayCache = new ReplayCache(configuration.getReplayCacheSize());
+  }
+
+  /**
+   * Sets the signing key. Tokens signed with the previous key are rejected from now on.
+   *
+   * @return {@code false}, if the key is empty
+   */
+  boolean setKey(String signingKey) {
+    if (signingKey == null || signingKey.isEmpty()) {
+      return false;
+    }
+    key = new SecretKeySpec(signingKey.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+    return true;
+  }
+
+  /**
+   * Returns {@code true}, if a signing key is known and the token has the format of a signed token.
+   */
+  boolean isSigned(String token) {
+    return key != null && token.startsWith(PREFIX);
+  }
+
+  /**
+   * Returns the account of the signed token, restricted to the scope of the token, or {@code null}, if the
+   * token is invalid, expired or has already been used.
+   */
+  ServiceAccount verify(String token) {
+    SecretKeySpec currentKey = key;
+    int separator = token.lastIndexOf('.');
+    if (currentKey == null || separator <= PREFIX.length() || !signers.get().isValid(currentKey, token, separator)) {
+      LOG.trace("Signature of signed token is invalid; rejecting request");
+      metrics.validation(CesMetrics.Outcome.MISMATCH);
+      return null;
+    }
+
+    List<String> claims = decodePayload(token.substring(PREFIX.length(), separator));
+    if (claims == null) {
+      LOG.warn("Signed token with valid signature has malformed payload; rejecting request");
+      metrics.validation(CesMetrics.Outcome.MISMATCH);
+      return null;
+    }
+
+    long now = clock.instant().getEpochSecond();
+    long expiresAt = Long.parseLong(claims.get(1));
+    if (expiresAt <= now || expiresAt > now + maxLifetime) {
+      LOG.debug("Signed token is expired or exceeds the maximum lifetime; rejecting request");
+      metrics.validation(CesMetrics.Outcome.EXPIRED);
+      return null;
+    }
+
+    ServiceAccount account = accounts.get(claims.get(0));
+    if (account == null) {
+      LOG.debug("Signed token for unknown service account {}; rejecting request", claims.get(0));
+      metrics.validation(CesMetrics.Outcome.MISMATCH);
+      return null;
+    }
+
+    String scope = claims.get(3);
+    if (!scope.isEmpty()) {
+      account = scope(account, scope);
+      if (account == null) {
+        LOG.debug("Scope of signed token exceeds the permissions of service account {}; rejecting request", claims.get(0));
+        metrics.validation(CesMetrics.Outcome.MISMATCH);
+        return null;
+      }
+    }
+
+    String nonce = claims.get(2);
+    if (!nonce.isEmpty() && !replayCache.markUsed(nonce, expiresAt, now)) {
+      LOG.debug("Single use token of {} has already been used; rejecting request", account);
+      metrics.validation(CesMetrics.Outcome.REPLAYED);
+      return null;
+    }
+
+    LOG.trace("Signed token ok; granting access to {}", account);
+    metrics.validation(CesMetrics.Outcome.OK);
+    return account;
+  }
+
+  private static List<String> decodePayload(String encoded) {
+    try {
+      String payload = new String(Base64.getUrlDecoder().decode(encoded), StandardCharsets.UTF_8);
+      List<String> claims = LINE_SPLITTER.splitToList(payload);
+      if (claims.size() != 4 || claims.get(0).isEmpty()) {
+        return null;
+      }
+      Long.parseLong(claims.get(1));
+      return claims;
+    } catch (IllegalArgumentException e) {
+      // invalid base64 or expiry; NumberFormatException is an IllegalArgumentException
+      return null;
+    }
+  }
+
+  private ServiceAccount scope(ServiceAccount account, String scope) {
+    String cacheKey = account.getName() + '\n' + scope;
+    ServiceAccount scoped = scopedAccounts.get(cacheKey);
+    if (scoped != null) {
+      return scoped;
+    }
+    List<String> permissions = SCOPE_SPLITTER.splitToList(scope);
+    for (String permission : permissions) {
+      if (!account.getAuthorizationInfo().implies(new WildcardPermission(permission))) {
+        return null;
+      }
+    }
+    scoped = account.withScope(permissions);
+    if (scopedAccounts.size() < MAX_SCOPED_ACCOUNTS) {
+      scopedAccounts.putIfAbsent(cacheKey, scoped);
+    }
+    return scoped;
+  }
+
+  int getReplayCacheSize() {
+    return replayCache.size();
+  }
+
+  /**
+   * Creates a signed token. CES issues these tokens; the plugin itself only needs this for tests.
+   */
+  static String sign(String signingKey, String account, Instant expiresAt, String nonce, Collection<String> scope) {
+    String payload = Joiner.on('\n').join(account, expiresAt.getEpochSecond(), nonce, Joiner.on(' ').join(scope));
+    String content = PREFIX + Base64.getUrlEncoder().withoutPadding().encodeToString(payload.getBytes(StandardCharsets.UTF_8));
+    try {
+      Mac mac = Mac.getInstance(ALGORITHM);
+      mac.init(new SecretKeySpec(signingKey.getBytes(StandardCharsets.UTF_8), ALGORITHM));
+      byte[] signature = mac.doFinal(content.getBytes(StandardCharsets.US_ASCII));
+      return content + '.' + Base64.getUrlEncoder().withoutPadding().encodeToString(signature);
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("could not sign token", e);
+    }
+  }
+
+  /**
+   * Thread confined mac with reused buffers, which is initialized again only if the key changes.
+   */
+  private static final class Signer {
+
+    private final Mac mac;
+    private final byte[] signature = new byte[SIGNATURE_LENGTH];
+    private final byte[] expected = new byte[SIGNATURE_LENGTH];
+    private byte[] buffer = new byte[256];
+    private SecretKeySpec initializedKey;
+
+    private Signer() {
+      try {
+        mac = Mac.getInstance(ALGORITHM);
+      } catch (GeneralSecurityException e) {
+        throw new IllegalStateException(ALGORITHM + " is not supported", e);
+      }
+    }
+
+    boolean isValid(SecretKeySpec key, String token, int separator) {
+      if (!decodeSignature(token, separator + 1)) {
+        return false;
+      }
+      if (buffer.length < separator) {
+        buffer = new byte[separator];
+      }
+      for (int i = 0; i < separator; ++i) {
+        char c = token.charAt(i);
+        if (c > 0x7f) {
+          return false;
+        }
+        buffer[i] = (byte) c;
+      }
+      try {
+        if (initializedKey != key) {
+          mac.init(key);
+          initializedKey = key;
+        }
+        mac.update(buffer, 0, separator);
+        mac.doFinal(signature, 0);
+      } catch (GeneralSecurityException e) {
+        throw new IllegalStateException("could not verify signature", e);
+      }
+      return MessageDigest.isEqual(signature, expected);
+    }
+
+    /**
+     * Decodes the base64url signature into the expected buffer without allocations.
+     */
+    private boolean decodeSignature(String token, int start) {
+      // 32 bytes are encoded as 43 characters without padding
+      if (token.length() - start != 43) {
+        return false;
+      }
+      int bits = 0;
+      int bitCount = 0;
+      int position = 0;
+      for (int i = start; i < token.length(); ++i) {
+        int value = decode(token.charAt(i));
+        if (value < 0) {
+          return false;
+        }
+        bits = bits << 6 | value;
+        bitCount += 6;
+        if (bitCount >= 8) {
+          bitCount -= 8;
+          expected[position++] = (byte) (bits >> bitCount);
+        }
+      }
+      return position == SIGNATURE_LENGTH;
+    }
+
+    private static int decode(char c) {
+      if (c >= 'A' && c <= 'Z') {
+        return c - 'A';
+      } else if (c >= 'a' && c <= 'z') {
+        return c - 'a' + 26;
+      } else if (c >= '0' && c <= '9') {
+        return c - '0' + 52;
+      } else if (c == '-') {
+        return 62;
+      } else if (c == '_') {
+        return 63;
+      }
+      return -1;
+    }
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes the sha-256 digest of tokens without allocating per call. The token is encoded as utf-8 into a
+ * buffer of the current thread, and the digest is written into a result array of the current thread, which
+ * is only valid until the next call on the same thread. Unpaired surrogates are encoded as {@code '?'}, just
+ * like {@link String#getBytes(java.nio.charset.Charset)} does.
+ */
+final class TokenDigest {
+
+  static final int LENGTH = 32;
+
+  private static final int INITIAL_BUFFER_SIZE = 256;
+
+  private static final ThreadLocal<TokenDigest> INSTANCE = ThreadLocal.withInitial(TokenDigest::new);
+
+  private final MessageDigest digest;
+  private final byte[] result = new byte[LENGTH];
+  private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+
+  private TokenDigest() {
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("sha-256 is not supported", e);
+    }
+  }
+
+  /**
+   * Returns the digest of the token in an array, that is reused for the next call of the current thread.
+   */
+  static byte[] of(CharSequence token) {
+    return INSTANCE.get().compute(token);
+  }
+
+  /**
+   * Returns the digest of the token in a new array.
+   */
+  static byte[] copyOf(CharSequence token) {
+    return of(token).clone();
+  }
+
+  /**
+   * Compares two digests in constant time.
+   */
+  static boolean isEqual(byte[] left, byte[] right) {
+    return MessageDigest.isEqual(left, right);
+  }
+
+  private byte[] compute(CharSequence token) {
+    int length = encode(token);
+    digest.update(buffer, 0, length);
+    try {
+      digest.digest(result, 0, LENGTH);
+    } catch (DigestException e) {
+      throw new IllegalStateException("could not compute digest", e);
+    }
+    return result;
+  }
+
+  private int encode(CharSequence token) {
+    int chars = token.length();
+    if (buffer.length < chars * 3) {
+      buffer = new byte[chars * 3];
+    }
+    int position = 0;
+    for (int i = 0; i < chars; ++i) {
+      char c = token.charAt(i);
+      if (c < 0x80) {
+        buffer[position++] = (byte) c;
+      } else if (c < 0x800) {
+        buffer[position++] = (byte) (0xc0 | c >> 6);
+        buffer[position++] = (byte) (0x80 | c & 0x3f);
+      } else if (Character.isHighSurrogate(c) && i + 1 < chars && Character.isLowSurrogate(token.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, token.charAt(++i));
+        buffer[position++] = (byte) (0xf0 | codePoint >> 18);
+        buffer[position++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+        buffer[position++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+        buffer[position++] = (byte) (0x80 | codePoint & 0x3f);
+      } else if (Character.isSurrogate(c)) {
+        buffer[position++] = '?';
+      } else {
+        buffer[position++] = (byte) (0xe0 | c >> 12);
+        buffer[position++] = (byte) (0x80 | c >> 6 & 0x3f);
+        buffer[position++] = (byte) (0x80 | c & 0x3f);
+      }
+    }
+    return position;
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.cloudogu.scm.ces.serviceaccount.Threads.daemon;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Reloads the token as soon as the file backing the configured {@link TokenSource} changes. The whole
+ * directory of the file is watched, so that secrets updated by an atomic rename or by swapping a symlink
+ * are detected as well. Only events for the watched files trigger a reload, together with swaps of the
+ * {@code ..data} symlink, which Kubernetes uses to update mounted secrets, and overflows, after which events
+ * may be lost. Bursts of events are collapsed into a single reload.
+ */
+@Singleton
+class TokenFileWatcher {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TokenFileWatcher.class);
+
+  private static final Path KUBERNETES_DATA = Paths.get("..data");
+
+  private final CesConfiguration configuration;
+  private final CesAccessValidator validator;
+
+  private WatchService watchService;
+
+  @Inject
+  TokenFileWatcher(CesConfiguration configuration, CesAccessValidator validator) {
+    this.configuration = configuration;
+    this.validator = validator;
+  }
+
+  synchronized void start() {
+    if (!configuration.isWatch() || watchService != null) {
+      return;
+    }
+    Map<Path, Set<Path>> filesByDirectory = new LinkedHashMap<>();
+    for (Path watchPath : validator.getWatchPaths()) {
+      Path file = watchPath.toAbsolutePath();
+      filesByDirectory.computeIfAbsent(file.getParent(), parent -> new HashSet<>()).add(file.getFileName());
+    }
+    Set<Path> directories = filesByDirectory.keySet();
+    if (directories.isEmpty()) {
+      LOG.warn("token source does not support watching; token will not be reloaded on changes");
+      return;
+    }
+    Path directory = null;
+    try {
+      watchService = FileSystems.getDefault().newWatchService();
+      for (Path watched : directories) {
+        directory = watched;
+        directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+      }
+    } catch (IOException e) {
+      LOG.error("Could not watch directory {} for token changes", directory, e);
+      close();
+      return;
+    }
+    LOG.info("Watching {} for changes of ces service account tokens", directories);
+    daemon("ces-token-watcher").newThread(() -> watch(watchService, filesByDirectory)).start();
+  }
+
+  private void watch(WatchService service, Map<Path, Set<Path>> filesByDirectory) {
+    Duration debounce = configuration.getWatchDebounce();
+    try {
+      while (true) {
+        if (!reset(service.take(), filesByDirectory)) {
+          continue;
+        }
+        WatchKey next;
+        while ((next = service.poll(debounce.toMillis(), TimeUnit.MILLISECONDS)) != null) {
+          reset(next, filesByDirectory);
+        }
+        LOG.debug("token file changed; reloading ces serviceaccount access token");
+        validator.reload();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ClosedWatchServiceException e) {
+      LOG.debug("stopped watching for token changes");
+    }
+  }
+
+  private boolean reset(WatchKey key, Map<Path, Set<Path>> filesByDirectory) {
+    Set<Path> watched = filesByDirectory.getOrDefault((Path) key.watchable(), Collections.emptySet());
+    boolean changed = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == OVERFLOW) {
+        changed = true;
+      } else {
+        Path name = (Path) event.context();
+        changed |= watched.contains(name) || KUBERNETES_DATA.equals(name);
+      }
+    }
+    key.reset();
+    return changed;
+  }
+
+  synchronized void close() {
+    if (watchService != null) {
+      try {
+        watchService.close();
+      } catch (IOException e) {
+        LOG.debug("Could not close watch service", e);
+      }
+      watchService = null;
+    }
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import com.google.common.hash.HashCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable view of the loaded ces tokens of all service accounts. The tokens are indexed by their sha-256
+ * digest, so a token is found with a single hash lookup, no matter how many accounts are configured. Tokens
+ * are never compared themselves; only their digests are compared, in constant time and without allocations
+ * on the request path (see {@link TokenDigest}). A new snapshot is published for each load, so that request
+ * threads can read the tokens without any locking. After a rotation the previous token of an account stays
+ * valid until the end of the overlap window.
+ */
+final class TokenSnapshot {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TokenSnapshot.class);
+
+  private final Map<HashCode, Entry> index;
+  private final Map<ServiceAccount, HashCode> current;
+  private final Instant loadedAt;
+
+  // open addressing table over the digests of the index, which can be probed with the reused digest array
+  private final byte[][] digests;
+  private final Entry[] entries;
+  private final int mask;
+
+  private TokenSnapshot(Map<HashCode, Entry> index, Map<ServiceAccount, HashCode> current, Instant loadedAt) {
+    this.index = index;
+    this.current = current;
+    this.loadedAt = loadedAt;
+
+    int capacity = Integer.highestOneBit(Math.max(1, index.size()) * 2 - 1) * 2;
+    this.digests = new byte[capacity][];
+    this.entries = new Entry[capacity];
+    this.mask = capacity - 1;
+    for (Map.Entry<HashCode, Entry> entry : index.entrySet()) {
+      byte[] digest = entry.getKey().asBytes();
+      int slot = slot(digest);
+      while (digests[slot] != null) {
+        slot = (slot + 1) & mask;
+      }
+      digests[slot] = digest;
+      entries[slot] = entry.getValue();
+    }
+  }
+
+  static TokenSnapshot of(Map<ServiceAccount, String> tokens, Instant loadedAt) {
+    return new TokenSnapshot(Collections.emptyMap(), Collections.emptyMap(), loadedAt)
+      .refresh(tokens, loadedAt, Duration.ZERO);
+  }
+
+  /**
+   * Creates the successor of this snapshot for freshly loaded tokens. If the token of an account has changed,
+   * its former token is accepted further on until the overlap has passed. Accounts without a loaded token keep
+   * their current token.
+   */
+  TokenSnapshot refresh(Map<ServiceAccount, String> tokens, Instant now, Duration overlap) {
+    Map<HashCode, Entry> nextIndex = new HashMap<>();
+    Map<ServiceAccount, HashCode> nextCurrent = new HashMap<>(current);
+    for (Map.Entry<ServiceAccount, String> token : tokens.entrySet()) {
+      nextCurrent.put(token.getKey(), digest(token.getValue()));
+    }
+    for (Map.Entry<ServiceAccount, HashCode> token : nextCurrent.entrySet()) {
+      Entry previous = nextIndex.put(token.getValue(), new Entry(token.getKey(), null));
+      if (previous != null) {
+        LOG.warn("Service accounts {} and {} use the same token; only {} is used", previous.account, token.getKey(), token.getKey());
+      }
+    }
+    Instant validUntil = now.plus(overlap);
+    for (Map.Entry<ServiceAccount, HashCode> token : current.entrySet()) {
+      if (!token.getValue().equals(nextCurrent.get(token.getKey())) && overlap.compareTo(Duration.ZERO) > 0) {
+        nextIndex.putIfAbsent(token.getValue(), new Entry(token.getKey(), validUntil));
+      }
+    }
+    for (Map.Entry<HashCode, Entry> entry : index.entrySet()) {
+      Entry rotated = entry.getValue();
+      if (rotated.validUntil != null && rotated.validUntil.isAfter(now)) {
+        nextIndex.putIfAbsent(entry.getKey(), rotated);
+      }
+    }
+    return new TokenSnapshot(
+      Collections.unmodifiableMap(nextIndex), Collections.unmodifiableMap(nextCurrent), now
+    );
+  }
+
+  /**
+   * Returns the account of the given token or {@code null}, if no account uses the token.
+   */
+  ServiceAccount find(String apiToken, Clock clock) {
+    byte[] digest = TokenDigest.of(apiToken);
+    for (int slot = slot(digest); digests[slot] != null; slot = (slot + 1) & mask) {
+      if (TokenDigest.isEqual(digests[slot], digest)) {
+        Entry entry = entries[slot];
+        if (entry.validUntil != null && !clock.instant().isBefore(entry.validUntil)) {
+          return null;
+        }
+        return entry.account;
+      }
+    }
+    return null;
+  }
+
+  boolean matches(String apiToken, Clock clock) {
+    return find(apiToken, clock) != null;
+  }
+
+  Instant getLoadedAt() {
+    return loadedAt;
+  }
+
+  private int slot(byte[] digest) {
+    // the digest is uniformly distributed, so its leading bytes are a sufficient hash
+    int hash = (digest[0] & 0xff) << 24 | (digest[1] & 0xff) << 16 | (digest[2] & 0xff) << 8 | digest[3] & 0xff;
+    return hash & mask;
+  }
+
+  private static HashCode digest(String token) {
+    return HashCode.fromBytes(TokenDigest.copyOf(token));
+  }
+
+  private static final class Entry {
+
+    private final ServiceAccount account;
+    private final Instant validUntil;
+
+    private Entry(ServiceAccount account, Instant validUntil) {
+      this.account = account;
+      this.validUntil = validUntil;
+    }
+  }
+}
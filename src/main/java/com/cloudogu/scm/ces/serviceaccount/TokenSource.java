@@ -0,0 +1,67 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import sonia.scm.plugin.ExtensionPoint;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * Source for the ces serviceaccount access token. The source to use is selected by its name with the
+ * environment variable {@code CES_TOKEN_SOURCE}.
+ */
+@ExtensionPoint
+public interface TokenSource {
+
+  /**
+   * Name of the source, used to select it by configuration.
+   */
+  String getName();
+
+  /**
+   * Reads the token stored under the given configuration key.
+   *
+   * @param key configuration key of the token
+   * @return the token, never {@code null}
+   * @throws IOException if the token could not be read
+   */
+  String read(String key) throws IOException;
+
+  /**
+   * Returns the file, that contains the token for the given key, if the source is backed by a file. Changes
+   * of this file trigger a reload of the token, when {@code CES_TOKEN_WATCH} is enabled.
+   */
+  default Optional<Path> getWatchPath(String key) {
+    return Optional.empty();
+  }
+
+  /**
+   * Releases resources held by this source.
+   */
+  default void close() {
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Decides whether ces tokens are accepted from a remote address. The configured networks are compiled into
+ * prefix tries once, so a lookup costs at most one step per address bit, no matter how many networks are
+ * configured. Remote addresses are parsed as literals and never resolved.
+ */
+@Singleton
+class TrustedNetworks {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TrustedNetworks.class);
+
+  private static final ThreadLocal<AddressParser> PARSER = ThreadLocal.withInitial(AddressParser::new);
+
+  private final PrefixTrie ipv4 = new PrefixTrie();
+  private final PrefixTrie ipv6 = new PrefixTrie();
+
+  @Inject
+  TrustedNetworks(CesConfiguration configuration) {
+    this(configuration.getTrustedNetworks());
+  }
+
+  TrustedNetworks(Collection<String> networks) {
+    AddressParser parser = new AddressParser();
+    for (String network : networks) {
+      if (!add(parser, network)) {
+        LOG.error("Ignoring invalid trusted network '{}'", network);
+      }
+    }
+    ipv4.trim();
+    ipv6.trim();
+    if (ipv4.isEmpty() && ipv6.isEmpty()) {
+      LOG.warn("No trusted networks configured, ces tokens will be rejected");
+    }
+  }
+
+  static TrustedNetworks localhost() {
+    return new TrustedNetworks(Arrays.asList("127.0.0.1/32", "::1/128"));
+  }
+
+  private boolean add(AddressParser parser, String network) {
+    int slash = network.indexOf('/');
+    String address = slash < 0 ? network : network.substring(0, slash);
+    int family = parser.parse(address);
+    if (family == 0) {
+      return false;
+    }
+    int bits = family == AddressParser.IPV4 ? 32 : 128;
+    int prefixLength = bits;
+    if (slash >= 0) {
+      try {
+        prefixLength = Integer.parseInt(network.substring(slash + 1));
+      } catch (NumberFormatException e) {
+        return false;
+      }
+      if (family == AddressParser.IPV4 && address.indexOf(':') >= 0) {
+        // prefixes of ipv4 mapped ipv6 addresses count the 96 bits of the mapping prefix
+        prefixLength -= 96;
+      }
+      if (prefixLength < 0 || prefixLength > bits) {
+        return false;
+      }
+    }
+    trie(family).insert(parser.getHigh(), parser.getLow(), prefixLength);
+    return true;
+  }
+
+  boolean isTrusted(String remoteAddress) {
+    AddressParser parser = PARSER.get();
+    int family = parser.parse(remoteAddress);
+    if (family == 0) {
+      return false;
+    }
+    return trie(family).matches(parser.getHigh(), parser.getLow(), family == AddressParser.IPV4 ? 32 : 128);
+  }
+
+  private PrefixTrie trie(int family) {
+    return family == AddressParser.IPV4 ? ipv4 : ipv6;
+  }
+}
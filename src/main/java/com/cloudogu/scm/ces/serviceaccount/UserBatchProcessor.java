@@ -0,0 +1,203 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import com.cloudogu.scm.ces.serviceaccount.UserBatchResult.Status;
+import com.google.common.base.Strings;
+import org.apache.shiro.authc.credential.PasswordService;
+import org.apache.shiro.authz.AuthorizationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sonia.scm.AlreadyExistsException;
+import sonia.scm.NotFoundException;
+import sonia.scm.security.PermissionAssigner;
+import sonia.scm.security.PermissionDescriptor;
+import sonia.scm.security.PermissionPermissions;
+import sonia.scm.user.User;
+import sonia.scm.user.UserManager;
+import sonia.scm.user.UserPermissions;
+
+import javax.inject.Inject;
+import javax.ws.rs.BadRequestException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Executes the operations of a batch request one after another. All operations are validated before the
+ * first one is executed and the global permissions for creating users and assigning permissions are checked
+ * only once for the whole batch. The operations are processed in chunks and no further chunk is started
+ * once the batch has taken longer than {@code CES_BATCH_TIMEOUT}, so that the response reaches the client
+ * before it gives up; the remaining operations are reported as skipped and can be sent again.
+ */
+class UserBatchProcessor {
+
+  private static final Logger LOG = LoggerFactory.getLogger(UserBatchProcessor.class);
+
+  private final UserManager userManager;
+  private final PermissionAssigner permissionAssigner;
+  private final PasswordService passwordService;
+  private final CesConfiguration configuration;
+  private final Clock clock;
+
+  @Inject
+  UserBatchProcessor(UserManager userManager, PermissionAssigner permissionAssigner, PasswordService passwordService, CesConfiguration configuration) {
+    this(userManager, permissionAssigner, passwordService, configuration, Clock.systemUTC());
+  }
+
+  UserBatchProcessor(UserManager userManager, PermissionAssigner permissionAssigner, PasswordService passwordService, CesConfiguration configuration, Clock clock) {
+    this.userManager = userManager;
+    this.permissionAssigner = permissionAssigner;
+    this.passwordService = passwordService;
+    this.configuration = configuration;
+    this.clock = clock;
+  }
+
+  UserBatchResult process(UserBatchRequest request) {
+    List<UserBatchRequest.Operation> operations = request == null || request.getOperations() == null
+      ? Collections.emptyList() : request.getOperations();
+    int maxOperations = configuration.getBatchMaxOperations();
+    if (operations.size() > maxOperations) {
+      throw new BadRequestException("batch contains more than " + maxOperations + " operations");
+    }
+
+    List<String> errors = new ArrayList<>(operations.size());
+    for (UserBatchRequest.Operation operation : operations) {
+      errors.add(validate(operation));
+    }
+    Map<UserBatchRequest.Type, Boolean> permitted = new EnumMap<>(UserBatchRequest.Type.class);
+    permitted.put(UserBatchRequest.Type.CREATE, UserPermissions.create().isPermitted());
+    permitted.put(UserBatchRequest.Type.ASSIGN, PermissionPermissions.assign().isPermitted());
+    // deletion may be granted for single users, so it is checked for every operation
+    permitted.put(UserBatchRequest.Type.DELETE, true);
+
+    List<UserBatchResult.Item> results = new ArrayList<>(operations.size());
+    int chunkSize = configuration.getBatchChunkSize();
+    Duration timeout = configuration.getBatchTimeout();
+    long deadline = timeout.isZero() || timeout.isNegative() ? Long.MAX_VALUE : clock.millis() + timeout.toMillis();
+    for (int start = 0; start < operations.size(); start += chunkSize) {
+      if (start > 0 && clock.millis() >= deadline) {
+        LOG.warn("batch request exceeded time limit of {} after {} of {} operations", timeout, start, operations.size());
+        for (int index = start; index < operations.size(); ++index) {
+          results.add(item(index, operations.get(index), Status.SKIPPED, "batch exceeded time limit"));
+        }
+        break;
+      }
+      int end = Math.min(start + chunkSize, operations.size());
+      for (int index = start; index < end; ++index) {
+        results.add(process(index, operations.get(index), errors.get(index), permitted));
+      }
+      LOG.debug("processed {} of {} batch operations", end, operations.size());
+    }
+    return new UserBatchResult(results);
+  }
+
+  private String validate(UserBatchRequest.Operation operation) {
+    if (operation == null || operation.getType() == null) {
+      return "type is required";
+    }
+    if (Strings.isNullOrEmpty(operation.getName())) {
+      return "name is required";
+    }
+    if (operation.getType() == UserBatchRequest.Type.CREATE && Strings.isNullOrEmpty(operation.getDisplayName())) {
+      return "display name is required";
+    }
+    if (operation.getType() == UserBatchRequest.Type.ASSIGN && operation.getPermissions() == null) {
+      return "permissions are required";
+    }
+    return null;
+  }
+
+  private UserBatchResult.Item process(int index, UserBatchRequest.Operation operation, String error, Map<UserBatchRequest.Type, Boolean> permitted) {
+    if (error != null) {
+      return item(index, operation, Status.INVALID, error);
+    }
+    if (!permitted.get(operation.getType())) {
+      return item(index, operation, Status.FORBIDDEN, "not permitted");
+    }
+    try {
+      switch (operation.getType()) {
+        case CREATE:
+          return create(index, operation);
+        case DELETE:
+          return delete(index, operation);
+        case ASSIGN:
+          return assign(index, operation);
+        default:
+          return item(index, operation, Status.INVALID, "unknown type");
+      }
+    } catch (AlreadyExistsException e) {
+      return item(index, operation, Status.CONFLICT, "user already exists");
+    } catch (NotFoundException e) {
+      return item(index, operation, Status.NOT_FOUND, "user not found");
+    } catch (AuthorizationException e) {
+      return item(index, operation, Status.FORBIDDEN, "not permitted");
+    } catch (RuntimeException e) {
+      LOG.warn("batch operation {} on user {} failed", operation.getType(), operation.getName(), e);
+      return item(index, operation, Status.FAILED, e.getMessage());
+    }
+  }
+
+  private UserBatchResult.Item create(int index, UserBatchRequest.Operation operation) {
+    User user = new User(operation.getName(), operation.getDisplayName(), operation.getMail());
+    user.setType(userManager.getDefaultType());
+    if (!Strings.isNullOrEmpty(operation.getPassword())) {
+      user.setPassword(passwordService.encryptPassword(operation.getPassword()));
+    }
+    userManager.create(user);
+    return item(index, operation, Status.CREATED, null);
+  }
+
+  private UserBatchResult.Item delete(int index, UserBatchRequest.Operation operation) {
+    User user = userManager.get(operation.getName());
+    if (user == null) {
+      return item(index, operation, Status.NOT_FOUND, "user not found");
+    }
+    userManager.delete(user);
+    return item(index, operation, Status.DELETED, null);
+  }
+
+  private UserBatchResult.Item assign(int index, UserBatchRequest.Operation operation) {
+    if (userManager.get(operation.getName()) == null) {
+      return item(index, operation, Status.NOT_FOUND, "user not found");
+    }
+    List<PermissionDescriptor> permissions = new ArrayList<>(operation.getPermissions().size());
+    for (String permission : operation.getPermissions()) {
+      permissions.add(new PermissionDescriptor(permission));
+    }
+    permissionAssigner.setPermissionsForUser(operation.getName(), permissions);
+    return item(index, operation, Status.ASSIGNED, null);
+  }
+
+  private static UserBatchResult.Item item(int index, UserBatchRequest.Operation operation, Status status, String message) {
+    return new UserBatchResult.Item(
+      index, operation == null ? new UserBatchRequest.Operation() : operation, status, message
+    );
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import java.util.List;
+
+/**
+ * Result of a batch request with one item for each operation, in the order of the operations.
+ */
+public class UserBatchResult {
+
+  private final List<Item> results;
+  private final int succeeded;
+  private final int failed;
+
+  UserBatchResult(List<Item> results) {
+    this.results = results;
+    int successes = 0;
+    for (Item item : results) {
+      if (item.getStatus().isSuccess()) {
+        ++successes;
+      }
+    }
+    this.succeeded = successes;
+    this.failed = results.size() - successes;
+  }
+
+  public List<Item> getResults() {
+    return results;
+  }
+
+  public int getSucceeded() {
+    return succeeded;
+  }
+
+  public int getFailed() {
+    return failed;
+  }
+
+  public enum Status {
+    CREATED(true),
+    DELETED(true),
+    ASSIGNED(true),
+    INVALID(false),
+    FORBIDDEN(false),
+    NOT_FOUND(false),
+    CONFLICT(false),
+    SKIPPED(false),
+    FAILED(false);
+
+    private final boolean success;
+
+    Status(boolean success) {
+      this.success = success;
+    }
+
+    public boolean isSuccess() {
+      return success;
+    }
+  }
+
+  public static class Item {
+
+    private final int index;
+    private final String name;
+    private final UserBatchRequest.Type type;
+    private final Status status;
+    private final String message;
+
+    Item(int index, UserBatchRequest.Operation operation, Status status, String message) {
+      this.index = index;
+      this.name = operation.getName();
+      this.type = operation.getType();
+      this.status = status;
+      this.message = message;
+    }
+
+    public int getIndex() {
+      return index;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public UserBatchRequest.Type getType() {
+      return type;
+    }
+
+    public Status getStatus() {
+      return status;
+    }
+
+    public String getMessage() {
+      return message;
+    }
+  }
+}
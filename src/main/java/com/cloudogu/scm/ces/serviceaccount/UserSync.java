@@ -0,0 +1,160 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import sonia.scm.security.AssignedPermission;
+import sonia.scm.security.SecuritySystem;
+import sonia.scm.user.User;
+import sonia.scm.user.UserManager;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the users changed since a cursor as newline delimited json, one object per line, so that neither
+ * the server nor the client has to keep the whole result in memory. The lines are written in this order:
+ *
+ * <ol>
+ *   <li>{@code {"type":"reset"}}, if the cursor is missing or too old; the client has to drop all users,
+ *   that are not part of the following lines</li>
+ *   <li>{@code {"type":"deleted","name":"..."}} for each user deleted since the cursor</li>
+ *   <li>{@code {"type":"user",...}} for each user created or modified or with changed permissions since the
+ *   cursor, including the permissions of the user</li>
+ *   <li>{@code {"type":"cursor","cursor":...}} with the cursor for the next synchronization</li>
+ * </ol>
+ *
+ * The next cursor is the time at which the synchronization has started, so changes made while streaming are
+ * delivered again with the next synchronization. The permissions of all users are read once per
+ * synchronization instead of once per user, because every read scans the whole permission store. The caller
+ * has to check, that the current subject may list users and read permissions.
+ */
+class UserSync {
+
+  private static final JsonFactory JSON = new JsonFactory();
+
+  private final UserManager userManager;
+  private final SecuritySystem securitySystem;
+  private final UserSyncJournal journal;
+  private final Clock clock;
+
+  @Inject
+  UserSync(UserManager userManager, SecuritySystem securitySystem, UserSyncJournal journal) {
+    this(userManager, securitySystem, journal, Clock.systemUTC());
+  }
+
+  UserSync(UserManager userManager, SecuritySystem securitySystem, UserSyncJournal journal, Clock clock) {
+    this.userManager = userManager;
+    this.securitySystem = securitySystem;
+    this.journal = journal;
+    this.clock = clock;
+  }
+
+  void write(Long since, OutputStream output) throws IOException {
+    long cursor = clock.millis();
+    boolean full = since == null || !journal.covers(since);
+    long from = full ? Long.MIN_VALUE : since;
+
+    JsonGenerator generator = JSON.createGenerator(output, JsonEncoding.UTF8);
+    generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    generator.setRootValueSeparator(new SerializedString("\n"));
+    try {
+      if (full) {
+        generator.writeStartObject();
+        generator.writeStringField("type", "reset");
+        generator.writeEndObject();
+      } else {
+        for (String name : journal.getDeletionsSince(from)) {
+          generator.writeStartObject();
+          generator.writeStringField("type", "deleted");
+          generator.writeStringField("name", name);
+          generator.writeEndObject();
+        }
+      }
+      Map<String, List<String>> permissions = readUserPermissions();
+      for (User user : userManager.getAll()) {
+        if (full || isChangedSince(user, from)) {
+          writeUser(generator, user, permissions.getOrDefault(user.getName(), Collections.emptyList()));
+        }
+      }
+      generator.writeStartObject();
+      generator.writeStringField("type", "cursor");
+      generator.writeNumberField("cursor", cursor);
+      generator.writeEndObject();
+      generator.writeRaw('\n');
+    } finally {
+      generator.close();
+    }
+  }
+
+  private Map<String, List<String>> readUserPermissions() {
+    Map<String, List<String>> permissions = new HashMap<>();
+    for (AssignedPermission permission : securitySystem.getPermissions(permission -> !permission.isGroupPermission())) {
+      permissions.computeIfAbsent(permission.getName(), name -> new ArrayList<>())
+        .add(permission.getPermission().getValue());
+    }
+    return permissions;
+  }
+
+  private boolean isChangedSince(User user, long since) {
+    return isAtOrAfter(user.getCreationDate(), since)
+      || isAtOrAfter(user.getLastModified(), since)
+      || journal.isPermissionChangedSince(user.getName(), since);
+  }
+
+  private static boolean isAtOrAfter(Long time, long since) {
+    return time != null && time >= since;
+  }
+
+  private void writeUser(JsonGenerator generator, User user, List<String> permissions) throws IOException {
+    generator.writeStartObject();
+    generator.writeStringField("type", "user");
+    generator.writeStringField("name", user.getName());
+    generator.writeStringField("displayName", user.getDisplayName());
+    generator.writeStringField("mail", user.getMail());
+    generator.writeBooleanField("active", user.isActive());
+    generator.writeBooleanField("external", user.isExternal());
+    Long lastModified = user.getLastModified() != null ? user.getLastModified() : user.getCreationDate();
+    if (lastModified != null) {
+      generator.writeNumberField("lastModified", lastModified);
+    }
+    generator.writeArrayFieldStart("permissions");
+    for (String permission : permissions) {
+      generator.writeString(permission);
+    }
+    generator.writeEndArray();
+    generator.writeEndObject();
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import com.github.legman.Subscribe;
+import sonia.scm.EagerSingleton;
+import sonia.scm.HandlerEventType;
+import sonia.scm.plugin.Extension;
+import sonia.scm.security.AssignedPermissionEvent;
+import sonia.scm.user.UserEvent;
+
+import javax.inject.Inject;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers deletions of users and changes of user permissions, which can not be derived from the users
+ * themselves, for incremental synchronizations. The journal is kept in memory for the configured retention,
+ * so it only covers changes since the start of SCM-Manager; older cursors require a full synchronization.
+ */
+@Extension
+@EagerSingleton
+public class UserSyncJournal {
+
+  private final Clock clock;
+  private final long retention;
+  private final long startedAt;
+
+  private final Map<String, Long> deletions = new ConcurrentHashMap<>();
+  private final Map<String, Long> permissionChanges = new ConcurrentHashMap<>();
+
+  @Inject
+  public UserSyncJournal(CesConfiguration configuration) {
+    this(configuration.getSyncJournalRetention(), Clock.systemUTC());
+  }
+
+  UserSyncJournal(Duration retention, Clock clock) {
+    this.clock = clock;
+    this.retention = retention.toMillis();
+    this.startedAt = clock.millis();
+  }
+
+  @Subscribe(async = false)
+  public void onUserEvent(UserEvent event) {
+    if (event.getEventType() == HandlerEventType.DELETE) {
+      deletions.put(event.getItem().getName(), clock.millis());
+    }
+  }
+
+  @Subscribe(async = false)
+  public void onPermissionEvent(AssignedPermissionEvent event) {
+    if (!event.getPermission().isGroupPermission()) {
+      permissionChanges.put(event.getPermission().getName(), clock.millis());
+    }
+  }
+
+  /**
+   * Returns {@code true}, if all deletions and permission changes since the given time are known.
+   */
+  boolean covers(long since) {
+    long now = clock.millis();
+    prune(now);
+    return since >= Math.max(startedAt, now - retention);
+  }
+
+  /**
+   * Returns the names of the users deleted since the given time.
+   */
+  List<String> getDeletionsSince(long since) {
+    List<String> result = new ArrayList<>();
+    for (Map.Entry<String, Long> deletion : deletions.entrySet()) {
+      if (deletion.getValue() >= since) {
+        result.add(deletion.getKey());
+      }
+    }
+    return result;
+  }
+
+  boolean isPermissionChangedSince(String name, long since) {
+    Long changedAt = permissionChanges.get(name);
+    return changedAt != null && changedAt >= since;
+  }
+
+  private void prune(long now) {
+    long oldest = now - retention;
+    deletions.values().removeIf(time -> time < oldest);
+    permissionChanges.values().removeIf(time -> time < oldest);
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AuditTrailTest {
+
+  private final CesMetrics metrics = CesMetrics.inMemory();
+  private final Map<String, String> environment = new HashMap<>();
+
+  @Test
+  void shouldWriteEventsAsJsonLines(@TempDir Path directory) throws IOException {
+    Path file = directory.resolve("ces").resolve("audit.log");
+    AuditTrail trail = new AuditTrail(new CesConfiguration(environment::get), file, metrics);
+
+    trail.record(new AuditEvent(0, "ces-service-account", "user.create", "trillian", null));
+    trail.record(new AuditEvent(1000, "ces-service-account", "permission.create", "trillian", "user:list"));
+    trail.flush();
+
+    assertThat(lines(file)).containsExactly(
+      "{\"timestamp\":\"1970-01-01T00:00:00Z\",\"account\":\"ces-service-account\",\"action\":\"user.create\",\"target\":\"trillian\"}",
+      "{\"timestamp\":\"1970-01-01T00:00:01Z\",\"account\":\"ces-service-account\",\"action\":\"permission.create\",\"target\":\"trillian\",\"permission\":\"user:list\"}"
+    );
+  }
+
+  @Test
+  void shouldAppendToExistingTrail(@TempDir Path directory) throws IOException {
+    Path file = directory.resolve("audit.log");
+    Files.write(file, "{\"action\":\"earlier\"}\n".getBytes(StandardCharsets.UTF_8));
+    AuditTrail trail = new AuditTrail(new CesConfiguration(environment::get), file, metrics);
+
+    trail.record(new AuditEvent(0, "ces-service-account", "user.delete", "dent", null));
+    trail.close();
+
+    List<String> lines = lines(file);
+    assertThat(lines).hasSize(2);
+    assertThat(lines.get(0)).isEqualTo("{\"action\":\"earlier\"}");
+  }
+
+  @Test
+  void shouldRecordDroppedEventsIfBufferIsFull(@TempDir Path directory) throws IOException {
+    environment.put("CES_AUDIT_BUFFER_SIZE", "2");
+    Path file = directory.resolve("audit.log");
+    AuditTrail trail = new AuditTrail(new CesConfiguration(environment::get), file, metrics);
+
+    for (int i = 0; i < 5; ++i) {
+      trail.record(new AuditEvent(0, "ces-service-account", "user.create", "user" + i, null));
+    }
+    trail.flush();
+
+    List<String> lines = lines(file);
+    assertThat(lines).hasSize(3);
+    assertThat(lines.get(0)).contains("\"action\":\"audit.dropped\"", "\"count\":3");
+    assertThat(lines.get(1)).contains("user0");
+    assertThat(lines.get(2)).contains("user1");
+    assertThat(metrics.getAuditDropped()).isEqualTo(3);
+  }
+
+  @Test
+  void shouldRotateBySize(@TempDir Path directory) throws IOException {
+    environment.put("CES_AUDIT_MAX_FILE_SIZE", "200");
+    environment.put("CES_AUDIT_MAX_FILES", "2");
+    Path file = directory.resolve("audit.log");
+    AuditTrail trail = new AuditTrail(new CesConfiguration(environment::get), file, metrics);
+
+    for (int i = 0; i < 4; ++i) {
+      trail.record(new AuditEvent(0, "ces-service-account", "user.create", "user" + i, null));
+      trail.record(new AuditEvent(0, "ces-service-account", "user.delete", "user" + i, null));
+      trail.flush();
+    }
+
+    assertThat(lines(file)).allMatch(line -> line.contains("user3"));
+    assertThat(lines(trail.rotated(1))).allMatch(line -> line.contains("user2"));
+    assertThat(lines(trail.rotated(2))).allMatch(line -> line.contains("user1"));
+    assertThat(trail.rotated(3)).doesNotExist();
+  }
+
+  @Test
+  void shouldNotRecordIfDisabled(@TempDir Path directory) {
+    environment.put("CES_AUDIT_ENABLED", "false");
+    Path file = directory.resolve("audit.log");
+    AuditTrail trail = new AuditTrail(new CesConfiguration(environment::get), file, metrics);
+
+    trail.record(new AuditEvent(0, "ces-service-account", "user.create", "trillian", null));
+    trail.flush();
+
+    assertThat(file).doesNotExist();
+  }
+
+  private List<String> lines(Path file) throws IOException {
+    return Files.readAllLines(file, StandardCharsets.UTF_8);
+  }
+}
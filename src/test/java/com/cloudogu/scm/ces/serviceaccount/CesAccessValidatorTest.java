@@ -25,6 +25,7 @@
 package com.cloudogu.scm.ces.serviceaccount;
 
 import org.apache.shiro.authc.AuthenticationException;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
@@ -34,11 +35,38 @@ import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
 import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonMap;
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -48,9 +76,18 @@ class CesAccessValidatorTest {
   private Runtime runtime;
   @Mock
   private Process process;
+  @Mock
+  private Clock clock;
 
   private CesAccessValidator validator;
 
+  @AfterEach
+  void closeValidator() {
+    if (validator != null) {
+      validator.close();
+    }
+  }
+
   @Test
   void shouldAlwaysFailIfConfigurationKeyIsUnknown() {
     validator = new CesAccessValidator(runtime, null);
@@ -59,6 +96,62 @@ class CesAccessValidatorTest {
       () -> validator.checkToken("valid"));
   }
 
+  @Test
+  void shouldUseConfiguredTokenSource() {
+    Map<String, String> environment = new HashMap<>();
+    environment.put("CES_TOKEN_SOURCE", "stand-in");
+    environment.put("CES_TOKEN_CONFIGURATION_KEY", "token");
+    CesConfiguration configuration = new CesConfiguration(environment::get);
+    validator = new CesAccessValidator(
+      new HashSet<>(asList(new DoguctlTokenSource(runtime, new CesConfiguration()), new StandInTokenSource())),
+      new ServiceAccounts(configuration),
+      configuration,
+      CesMetrics.inMemory()
+    );
+
+    validator.checkToken("stand-in-token");
+  }
+
+  @Test
+  void shouldCountValidationsByOutcome() {
+    CesMetrics metrics = CesMetrics.inMemory();
+    validator = new CesAccessValidator(
+      new RotatingTokenSource("valid"), "token", new CesConfiguration(name -> null), Clock.systemUTC(), metrics
+    );
+
+    validator.checkToken("valid");
+    assertThrows(AuthenticationException.class, () -> validator.checkToken("invalid"));
+    assertThrows(AuthenticationException.class, () -> validator.checkToken(null));
+
+    assertThat(metrics.getValidations(CesMetrics.Outcome.OK)).isEqualTo(1);
+    assertThat(metrics.getValidations(CesMetrics.Outcome.MISMATCH)).isEqualTo(1);
+    assertThat(metrics.getValidations(CesMetrics.Outcome.NO_TOKEN)).isEqualTo(1);
+  }
+
+  @Test
+  void shouldRejectTokensOfDifferentLength() {
+    validator = new CesAccessValidator(
+      new RotatingTokenSource("valid"), "token", new CesConfiguration(name -> null), Clock.systemUTC(), CesMetrics.inMemory()
+    );
+
+    assertThat(validator.checkToken("valid")).isNotNull();
+    for (String token : new String[]{"", "v", "vali", "valid ", " valid", "validvalid", "valid".repeat(1000), "v\u00e4lid"}) {
+      assertThrows(AuthenticationException.class, () -> validator.checkToken(token));
+    }
+  }
+
+  @Test
+  void shouldCountValidationsWithUnavailableToken() {
+    CesMetrics metrics = CesMetrics.inMemory();
+    validator = new CesAccessValidator(
+      new RotatingTokenSource(null), "token", new CesConfiguration(name -> null), Clock.systemUTC(), metrics
+    );
+
+    assertThrows(AuthenticationException.class, () -> validator.checkToken("valid"));
+
+    assertThat(metrics.getValidations(CesMetrics.Outcome.TOKEN_UNAVAILABLE)).isEqualTo(1);
+  }
+
   @Nested
   class ForFailingDoguctlCalls {
 
@@ -70,6 +163,8 @@ class CesAccessValidatorTest {
         .thenReturn(process);
       when(process.getOutputStream())
         .thenReturn(mock(OutputStream.class));
+      when(process.getErrorStream())
+        .thenReturn(new ByteArrayInputStream(new byte[0]));
     }
 
     @Test
@@ -90,6 +185,43 @@ class CesAccessValidatorTest {
       assertThrows(AuthenticationException.class,
         () -> validator.checkToken("valid"));
     }
+
+    @Test
+    void shouldNotCallDoguctlAgainDuringBackoff() throws IOException {
+      when(process.getInputStream())
+        .thenThrow(RuntimeException.class);
+
+      assertThrows(AuthenticationException.class,
+        () -> validator.checkToken("valid"));
+      assertThrows(TokenUnavailableException.class,
+        () -> validator.checkToken("valid"));
+
+      verify(runtime).exec(new String[]{"doguctl", "config", "--encrypted", "token"});
+      assertThat(validator.getFailure().getFailures()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldRetryAfterBackoff() throws IOException {
+      AtomicReference<Instant> now = new AtomicReference<>(Instant.parse("2021-10-06T10:00:00Z"));
+      when(clock.instant()).thenAnswer(invocation -> now.get());
+      validator.close();
+      validator = new CesAccessValidator(runtime, "token", new CesConfiguration(
+        singletonMap("CES_TOKEN_BACKOFF_INITIAL_DELAY", "10s")::get
+      ), clock);
+      when(process.getInputStream())
+        .thenThrow(RuntimeException.class);
+
+      assertThrows(AuthenticationException.class,
+        () -> validator.checkToken("valid"));
+      assertThat(validator.getFailure().getRetryAt()).isBetween(now.get().plusSeconds(5), now.get().plusSeconds(10));
+
+      now.set(now.get().plusSeconds(11));
+      assertThrows(AuthenticationException.class,
+        () -> validator.checkToken("valid"));
+
+      verify(runtime, times(2)).exec(new String[]{"doguctl", "config", "--encrypted", "token"});
+      assertThat(validator.getFailure().getFailures()).isEqualTo(2);
+    }
   }
 
   @Nested
@@ -104,6 +236,8 @@ class CesAccessValidatorTest {
         .thenReturn(new ByteArrayInputStream("valid".getBytes(StandardCharsets.UTF_8)));
       when(process.getOutputStream())
         .thenReturn(mock(OutputStream.class));
+      when(process.getErrorStream())
+        .thenReturn(new ByteArrayInputStream(new byte[0]));
       when(process.waitFor()).thenReturn(0);
     }
 
@@ -119,5 +253,578 @@ class CesAccessValidatorTest {
       assertThrows(AuthenticationException.class,
         () -> validator.checkToken("invalid"));
     }
+
+    @Test
+    void shouldLoadTokenInBackground() {
+      validator.startLoading().join();
+
+      assertThat(validator.isTokenAvailable()).isTrue();
+    }
+
+    @Test
+    void shouldRejectRequestsUntilTokenIsLoadedInFailFastMode() {
+      validator.close();
+      validator = new CesAccessValidator(runtime, "token", new CesConfiguration(
+        singletonMap("CES_TOKEN_STARTUP_MODE", "fail-fast")::get
+      ));
+
+      assertThrows(TokenUnavailableException.class,
+        () -> validator.checkToken("valid"));
+
+      validator.startLoading().join();
+      validator.checkToken("valid");
+    }
+  }
+
+  @Nested
+  class WithHangingDoguctl {
+
+    private final CountDownLatch destroyed = new CountDownLatch(1);
+
+    @BeforeEach
+    void initProcess() throws IOException {
+      when(runtime.exec(new String[]{"doguctl", "config", "--encrypted", "token"}))
+        .thenReturn(process);
+      when(process.getOutputStream())
+        .thenReturn(mock(OutputStream.class));
+      when(process.getErrorStream())
+        .thenReturn(new ByteArrayInputStream(new byte[0]));
+      when(process.getInputStream())
+        .thenReturn(new HangingInputStream(destroyed));
+    }
+
+    @AfterEach
+    void releaseProcess() {
+      destroyed.countDown();
+    }
+
+    @Test
+    void shouldDestroyProcessAfterLoadTimeout() throws InterruptedException {
+      when(process.destroyForcibly()).thenAnswer(invocation -> {
+        destroyed.countDown();
+        return process;
+      });
+      when(process.waitFor()).thenReturn(137);
+      validator = new CesAccessValidator(runtime, "token", new CesConfiguration(
+        singletonMap("CES_TOKEN_LOAD_TIMEOUT", "100ms")::get
+      ));
+
+      assertThrows(AuthenticationException.class,
+        () -> validator.checkToken("valid"));
+
+      verify(process).destroyForcibly();
+      assertThat(validator.isTokenAvailable()).isFalse();
+    }
+
+    @Test
+    void shouldLimitTimeRequestsWaitForToken() {
+      validator = new CesAccessValidator(runtime, "token", new CesConfiguration(
+        singletonMap("CES_TOKEN_REQUEST_TIMEOUT", "100ms")::get
+      ));
+
+      assertThrows(TokenUnavailableException.class,
+        () -> validator.checkToken("valid"));
+    }
+  }
+
+  @Nested
+  class WithRotatingToken {
+
+    private final RotatingTokenSource source = new RotatingTokenSource("first");
+    private final AtomicReference<Instant> now = new AtomicReference<>(Instant.parse("2021-10-06T10:00:00Z"));
+
+    @BeforeEach
+    void initValidator() {
+      when(clock.instant()).thenAnswer(invocation -> now.get());
+      Map<String, String> environment = new HashMap<>();
+      environment.put("CES_TOKEN_ROTATION_OVERLAP", "1m");
+      environment.put("CES_TOKEN_REFRESH_INTERVAL", "50ms");
+      validator = new CesAccessValidator(source, "token", new CesConfiguration(environment::get), clock);
+      validator.startLoading().join();
+    }
+
+    @Test
+    void shouldAcceptNewTokenAfterReload() {
+      source.value.set("second");
+
+      validator.reload().join();
+
+      validator.checkToken("second");
+    }
+
+    @Test
+    void shouldAcceptPreviousTokenDuringOverlap() {
+      source.value.set("second");
+      validator.reload().join();
+
+      now.set(now.get().plusSeconds(59));
+
+      validator.checkToken("first");
+    }
+
+    @Test
+    void shouldRejectPreviousTokenAfterOverlap() {
+      source.value.set("second");
+      validator.reload().join();
+
+      now.set(now.get().plusSeconds(61));
+
+      assertThrows(AuthenticationException.class,
+        () -> validator.checkToken("first"));
+    }
+
+    @Test
+    void shouldKeepTokenIfReloadFails() {
+      source.value.set(null);
+
+      validator.reload().join();
+
+      validator.checkToken("first");
+      assertThat(validator.getFailure().getFailures()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldReloadAgainIfTokenChangesDuringRunningRead() throws Exception {
+      CountDownLatch release = new CountDownLatch(1);
+      source.gate.set(release);
+      validator.reload();
+      assertThat(source.waiting.await(10, TimeUnit.SECONDS)).isTrue();
+
+      source.value.set("second");
+      CompletableFuture<TokenSnapshot> queued = validator.reload();
+      assertThat(validator.reload()).isSameAs(queued);
+      release.countDown();
+      queued.get(10, TimeUnit.SECONDS);
+
+      validator.checkToken("second");
+      assertThat(source.count.get()).isEqualTo(3);
+    }
+
+    @Test
+    void shouldRefreshTokenPeriodically() throws InterruptedException {
+      source.value.set("second");
+
+      validator.scheduleRefresh();
+
+      assertThat(source.reads.await(10, TimeUnit.SECONDS)).isTrue();
+      validator.reload().join();
+      validator.checkToken("second");
+    }
+  }
+
+  @Nested
+  class WithReloadOnMismatch {
+
+    private final RotatingTokenSource source = new RotatingTokenSource("first");
+    private final AtomicReference<Instant> now = new AtomicReference<>(Instant.parse("2021-10-06T10:00:00Z"));
+
+    @BeforeEach
+    void initValidator() {
+      when(clock.instant()).thenAnswer(invocation -> now.get());
+      Map<String, String> environment = new HashMap<>();
+      environment.put("CES_TOKEN_MISMATCH_RELOAD_INTERVAL", "30s");
+      environment.put("CES_TOKEN_MISMATCH_RELOAD_WAIT", "10s");
+      validator = new CesAccessValidator(source, "token", new CesConfiguration(environment::get), clock);
+      validator.startLoading().join();
+    }
+
+    @Test
+    void shouldAcceptRotatedTokenWithinOneRequest() {
+      source.value.set("second");
+
+      assertThat(validator.checkToken("second")).isNotNull();
+      assertThat(source.count.get()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldReloadAtMostOncePerInterval() {
+      for (int i = 0; i < 10; ++i) {
+        assertThrows(AuthenticationException.class, () -> validator.checkToken("invalid"));
+      }
+      assertThat(source.count.get()).isEqualTo(2);
+
+      now.set(now.get().plusSeconds(31));
+
+      assertThrows(AuthenticationException.class, () -> validator.checkToken("invalid"));
+      assertThat(source.count.get()).isEqualTo(3);
+    }
+
+    @Test
+    void shouldCountLoadsTriggeredByMismatches() {
+      source.value.set("second");
+
+      validator.checkToken("second");
+
+      assertThat(validator.getLoadCount()).isEqualTo(2);
+      assertThat(validator.getMismatchReloadCount()).isEqualTo(1);
+      assertThat(validator.getBackoffCount()).isZero();
+    }
+
+    @Test
+    void shouldShareReloadForConcurrentMismatches() throws Exception {
+      CountDownLatch release = new CountDownLatch(1);
+      source.gate.set(release);
+      source.value.set("second");
+      ExecutorService requests = Executors.newFixedThreadPool(8);
+      try {
+        List<Future<ServiceAccount>> results = new ArrayList<>();
+        for (int i = 0; i < 8; ++i) {
+          results.add(requests.submit(() -> validator.checkToken("second")));
+        }
+        release.countDown();
+
+        for (Future<ServiceAccount> result : results) {
+          assertThat(result.get(10, TimeUnit.SECONDS)).isNotNull();
+        }
+        assertThat(source.count.get()).isEqualTo(2);
+      } finally {
+        requests.shutdownNow();
+      }
+    }
+
+    @Test
+    void shouldNotReloadWithoutInterval() {
+      validator.close();
+      validator = new CesAccessValidator(source, "token", new CesConfiguration(name -> null), clock);
+      validator.startLoading().join();
+      source.value.set("second");
+
+      assertThrows(AuthenticationException.class, () -> validator.checkToken("second"));
+      assertThat(source.count.get()).isEqualTo(2);
+    }
+  }
+
+  @Nested
+  class WithMultipleAccounts {
+
+    private final Map<String, String> tokens = new ConcurrentHashMap<>();
+    private final ServiceAccount defaultAccount = ServiceAccounts.createDefault("token");
+    private final ServiceAccount redmine = new ServiceAccount("redmine", "Redmine", "redmine_token", asList("user:list"));
+    private final AtomicReference<Instant> now = new AtomicReference<>(Instant.parse("2021-10-06T10:00:00Z"));
+
+    @BeforeEach
+    void initValidator() {
+      when(clock.instant()).thenAnswer(invocation -> now.get());
+      tokens.put("token", "default-secret");
+      tokens.put("redmine_token", "redmine-secret");
+      validator = new CesAccessValidator(
+        new MapTokenSource(tokens),
+        new ServiceAccounts(asList(defaultAccount, redmine)),
+        new CesConfiguration(name -> "CES_TOKEN_ROTATION_OVERLAP".equals(name) ? "1m" : null),
+        clock,
+        CesMetrics.inMemory()
+      );
+    }
+
+    @Test
+    void shouldReturnAccountOfToken() {
+      assertThat(validator.checkToken("default-secret")).isSameAs(defaultAccount);
+      assertThat(validator.checkToken("redmine-secret")).isSameAs(redmine);
+    }
+
+    @Test
+    void shouldRejectConfigurationKeyAsToken() {
+      assertThrows(AuthenticationException.class,
+        () -> validator.checkToken("redmine_token"));
+    }
+
+    @Test
+    void shouldServeReadableAccountsIfOneTokenIsMissing() {
+      tokens.remove("redmine_token");
+
+      assertThat(validator.checkToken("default-secret")).isSameAs(defaultAccount);
+      assertThrows(AuthenticationException.class,
+        () -> validator.checkToken("redmine-secret"));
+      assertThat(validator.getFailure().getFailures()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldRetryMissingTokenAfterBackoff() {
+      tokens.remove("redmine_token");
+      validator.startLoading().join();
+      tokens.put("redmine_token", "redmine-secret");
+
+      assertThrows(AuthenticationException.class,
+        () -> validator.checkToken("redmine-secret"));
+
+      now.set(now.get().plusSeconds(2));
+      assertThat(validator.checkToken("default-secret")).isSameAs(defaultAccount);
+      validator.startLoading().join();
+
+      assertThat(validator.checkToken("redmine-secret")).isSameAs(redmine);
+      assertThat(validator.getFailure()).isNull();
+    }
+
+    @Test
+    void shouldKeepTokenOfAccountIfReloadOfItFails() {
+      validator.startLoading().join();
+      tokens.remove("redmine_token");
+
+      validator.reload().join();
+
+      assertThat(validator.checkToken("redmine-secret")).isSameAs(redmine);
+    }
+
+    @Test
+    void shouldRotateTokensPerAccount() {
+      validator.startLoading().join();
+      tokens.put("redmine_token", "rotated-secret");
+      validator.reload().join();
+
+      assertThat(validator.checkToken("rotated-secret")).isSameAs(redmine);
+      assertThat(validator.checkToken("redmine-secret")).isSameAs(redmine);
+      assertThat(validator.checkToken("default-secret")).isSameAs(defaultAccount);
+
+      now.set(now.get().plusSeconds(61));
+
+      assertThrows(AuthenticationException.class,
+        () -> validator.checkToken("redmine-secret"));
+      assertThat(validator.checkToken("default-secret")).isSameAs(defaultAccount);
+    }
+  }
+
+  @Nested
+  class WithSigningKey {
+
+    private final Map<String, String> tokens = new ConcurrentHashMap<>();
+    private final AtomicReference<Instant> now = new AtomicReference<>(Instant.parse("2021-10-06T10:00:00Z"));
+
+    @BeforeEach
+    void initValidator() {
+      when(clock.instant()).thenAnswer(invocation -> now.get());
+      tokens.put("token", "default-secret");
+      tokens.put("signing_key", "signing-secret");
+      validator = new CesAccessValidator(
+        new MapTokenSource(tokens),
+        ServiceAccounts.single("token"),
+        new CesConfiguration(name -> "CES_SIGNING_KEY_CONFIGURATION_KEY".equals(name) ? "signing_key" : null),
+        clock,
+        CesMetrics.inMemory()
+      );
+    }
+
+    @Test
+    void shouldAcceptSignedTokenAndSharedSecret() {
+      String token = SignedTokenVerifier.sign(
+        "signing-secret", ServiceAccounts.DEFAULT_NAME, now.get().plusSeconds(60), "", emptyList()
+      );
+
+      assertThat(validator.checkToken(token).getName()).isEqualTo(ServiceAccounts.DEFAULT_NAME);
+      assertThat(validator.checkToken("default-secret").getName()).isEqualTo(ServiceAccounts.DEFAULT_NAME);
+    }
+
+    @Test
+    void shouldRejectSignedTokenWithOtherKey() {
+      String token = SignedTokenVerifier.sign(
+        "default-secret", ServiceAccounts.DEFAULT_NAME, now.get().plusSeconds(60), "", emptyList()
+      );
+
+      assertThrows(AuthenticationException.class, () -> validator.checkToken(token));
+    }
+
+    @Test
+    void shouldBackOffIfSigningKeyIsMissing() {
+      tokens.remove("signing_key");
+
+      validator.checkToken("default-secret");
+
+      assertThat(validator.getFailure()).isNotNull();
+    }
+
+    @Test
+    void shouldRetryMissingSigningKeyAfterBackoff() {
+      tokens.remove("signing_key");
+      validator.checkToken("default-secret");
+      tokens.put("signing_key", "signing-secret");
+
+      now.set(now.get().plusSeconds(2));
+      validator.checkToken("default-secret");
+      validator.startLoading().join();
+
+      String token = SignedTokenVerifier.sign(
+        "signing-secret", ServiceAccounts.DEFAULT_NAME, now.get().plusSeconds(60), "", emptyList()
+      );
+      assertThat(validator.checkToken(token).getName()).isEqualTo(ServiceAccounts.DEFAULT_NAME);
+    }
+
+    @Test
+    void shouldAcceptSignedTokenWithoutStaticToken() {
+      tokens.remove("token");
+      String token = SignedTokenVerifier.sign(
+        "signing-secret", ServiceAccounts.DEFAULT_NAME, now.get().plusSeconds(60), "", emptyList()
+      );
+
+      assertThat(validator.checkToken(token).getName()).isEqualTo(ServiceAccounts.DEFAULT_NAME);
+      assertThrows(AuthenticationException.class, () -> validator.checkToken("default-secret"));
+      assertThat(validator.isTokenAvailable()).isTrue();
+      assertThat(validator.getFailure()).isNotNull();
+    }
+  }
+
+  @Nested
+  class UnderConcurrentLoad {
+
+    private static final int THREADS = 8;
+
+    private final ExecutorService requests = Executors.newFixedThreadPool(THREADS);
+
+    @BeforeEach
+    void initValidator() throws IOException {
+      validator = new CesAccessValidator(runtime, "token");
+      when(runtime.exec(new String[]{"doguctl", "config", "--encrypted", "token"}))
+        .thenReturn(process);
+      when(process.getInputStream())
+        .thenReturn(new ByteArrayInputStream("valid".getBytes(StandardCharsets.UTF_8)));
+      when(process.getOutputStream())
+        .thenReturn(mock(OutputStream.class));
+      when(process.getErrorStream())
+        .thenReturn(new ByteArrayInputStream(new byte[0]));
+    }
+
+    @AfterEach
+    void shutdownRequests() {
+      requests.shutdownNow();
+    }
+
+    @Test
+    void shouldReadTokenOnlyOnceForConcurrentFirstRequests() throws Exception {
+      CountDownLatch release = new CountDownLatch(1);
+      when(process.waitFor()).thenAnswer(invocation -> {
+        release.await();
+        return 0;
+      });
+
+      List<Future<?>> results = new ArrayList<>();
+      for (int i = 0; i < THREADS; ++i) {
+        results.add(requests.submit(() -> validator.checkToken("valid")));
+      }
+      release.countDown();
+
+      for (Future<?> result : results) {
+        result.get(10, TimeUnit.SECONDS);
+      }
+      verify(runtime).exec(new String[]{"doguctl", "config", "--encrypted", "token"});
+    }
+
+    @Test
+    void shouldNotBlockRequestThreadsOnceTokenIsPresent() throws Exception {
+      when(process.waitFor()).thenReturn(0);
+      validator.startLoading().join();
+
+      ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+      CyclicBarrier start = new CyclicBarrier(THREADS);
+      List<Future<Long>> results = new ArrayList<>();
+      for (int i = 0; i < THREADS; ++i) {
+        results.add(requests.submit(() -> {
+          start.await();
+          ThreadInfo before = threadMXBean.getThreadInfo(Thread.currentThread().getId());
+          for (int j = 0; j < 10_000; ++j) {
+            validator.checkToken("valid");
+          }
+          ThreadInfo after = threadMXBean.getThreadInfo(Thread.currentThread().getId());
+          return after.getBlockedCount() - before.getBlockedCount()
+            + after.getWaitedCount() - before.getWaitedCount();
+        }));
+      }
+
+      for (Future<Long> result : results) {
+        assertThat(result.get(10, TimeUnit.SECONDS)).isZero();
+      }
+    }
+  }
+
+  private static class HangingInputStream extends InputStream {
+
+    private final CountDownLatch released;
+
+    HangingInputStream(CountDownLatch released) {
+      this.released = released;
+    }
+
+    @Override
+    public int read() throws IOException {
+      try {
+        released.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("interrupted", e);
+      }
+      return -1;
+    }
+  }
+
+  private static class StandInTokenSource implements TokenSource {
+
+    @Override
+    public String getName() {
+      return "stand-in";
+    }
+
+    @Override
+    public String read(String key) {
+      return "stand-in-" + key;
+    }
+  }
+
+  private static class MapTokenSource implements TokenSource {
+
+    private final Map<String, String> tokens;
+
+    MapTokenSource(Map<String, String> tokens) {
+      this.tokens = tokens;
+    }
+
+    @Override
+    public String getName() {
+      return "map";
+    }
+
+    @Override
+    public String read(String key) throws IOException {
+      String token = tokens.get(key);
+      if (token == null) {
+        throw new IOException("no token for " + key);
+      }
+      return token;
+    }
+  }
+
+  private static class RotatingTokenSource implements TokenSource {
+
+    private final AtomicReference<String> value;
+    private final CountDownLatch reads = new CountDownLatch(3);
+    private final AtomicInteger count = new AtomicInteger();
+    private final AtomicReference<CountDownLatch> gate = new AtomicReference<>();
+    private final CountDownLatch waiting = new CountDownLatch(1);
+
+    RotatingTokenSource(String value) {
+      this.value = new AtomicReference<>(value);
+    }
+
+    @Override
+    public String getName() {
+      return "rotating";
+    }
+
+    @Override
+    public String read(String key) throws IOException {
+      reads.countDown();
+      count.incrementAndGet();
+      String token = value.get();
+      // the gate holds the next read after it has read the value
+      CountDownLatch currentGate = gate.getAndSet(null);
+      if (currentGate != null) {
+        waiting.countDown();
+        try {
+          currentGate.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      if (token == null) {
+        throw new IOException("no token");
+      }
+      return token;
+    }
   }
 }
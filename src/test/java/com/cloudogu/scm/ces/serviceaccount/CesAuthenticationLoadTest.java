@@ -0,0 +1,310 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import org.apache.shiro.authc.AuthenticationException;
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.web.mgt.DefaultWebSecurityManager;
+import org.apache.shiro.web.subject.WebSubject;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Drives concurrent localhost traffic through an embedded servlet container, in which ces tokens are
+ * authenticated by the {@link CesTokenGenerator} and the {@link CesTokenRealm} like in SCM-Manager. The
+ * token is read by a fake doguctl script, see {@code fake-doguctl.sh}, whose delay and failures can be
+ * changed by the tests.
+ * <p>
+ * The tests are tagged with {@code load} and are only run by {@code gradle loadTest}. Each test prints the
+ * p50 and p99 latency of the authentication, the throughput and the number of doguctl calls. The accepted
+ * p99 latency can be changed with the system property {@code ces.load.maxP99Millis}.
+ */
+@Tag("load")
+class CesAuthenticationLoadTest {
+
+  private static final String HEADER = "X-CES-Token";
+  private static final String TOKEN = "load-test-token";
+  private static final long MAX_P99_MILLIS = Long.getLong("ces.load.maxP99Millis", 250);
+
+  @TempDir
+  Path directory;
+
+  private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+  private final Map<String, String> environment = new HashMap<>();
+
+  private CesMetrics metrics;
+  private CesAccessValidator validator;
+  private DefaultWebSecurityManager securityManager;
+  private Server server;
+  private URI uri;
+
+  @BeforeEach
+  void installFakeDoguctl() throws IOException {
+    Path doguctl = directory.resolve("doguctl");
+    try (InputStream script = CesAuthenticationLoadTest.class.getResourceAsStream("fake-doguctl.sh")) {
+      Files.copy(script, doguctl, StandardCopyOption.REPLACE_EXISTING);
+    }
+    assertThat(doguctl.toFile().setExecutable(true)).isTrue();
+    Files.writeString(directory.resolve("token"), TOKEN + "\n");
+    environment.put("CES_DOGUCTL_PATH", doguctl.toString());
+    environment.put("CES_TOKEN_CONFIGURATION_KEY", "serviceaccount_token");
+  }
+
+  @AfterEach
+  void stopServer() throws Exception {
+    if (server != null) {
+      server.stop();
+    }
+    if (securityManager != null) {
+      securityManager.destroy();
+    }
+    if (validator != null) {
+      validator.close();
+    }
+  }
+
+  @Test
+  void shouldReadTokenOnceForColdStartStampede() throws Exception {
+    Files.writeString(directory.resolve("delay"), "0.5");
+    startServer();
+
+    LoadReport report = run("cold start", 64, 1, TOKEN);
+
+    assertThat(report.count(200)).isEqualTo(64);
+    assertThat(spawns()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldAuthenticateSustainedTrafficWithoutCallingDoguctlAgain() throws Exception {
+    startServer();
+    validator.startLoading().join();
+
+    LoadReport report = run("sustained", 16, 500, TOKEN);
+
+    assertThat(report.count(200)).isEqualTo(16 * 500);
+    assertThat(report.percentile(99)).isLessThan(TimeUnit.MILLISECONDS.toNanos(MAX_P99_MILLIS));
+    assertThat(spawns()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldBackOffWhileDoguctlFails() throws Exception {
+    Files.writeString(directory.resolve("fail"), "1");
+    environment.put("CES_TOKEN_BACKOFF_INITIAL_DELAY", "1m");
+    startServer();
+
+    LoadReport report = run("failing doguctl", 16, 50, TOKEN);
+
+    assertThat(report.count(200)).isZero();
+    assertThat(spawns()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldThrottleFloodOfInvalidTokens() throws Exception {
+    startServer();
+    validator.startLoading().join();
+
+    LoadReport report = run("invalid tokens", 16, 100, "invalid-token");
+
+    assertThat(report.count(200)).isZero();
+    assertThat(metrics.getValidations(CesMetrics.Outcome.THROTTLED)).isPositive();
+    assertThat(spawns()).isEqualTo(1);
+  }
+
+  private void startServer() throws Exception {
+    CesConfiguration configuration = new CesConfiguration(environment::get);
+    metrics = CesMetrics.inMemory();
+    validator = new CesAccessValidator(
+      new DoguctlTokenSource(Runtime.getRuntime(), configuration, metrics),
+      new ServiceAccounts(configuration),
+      configuration,
+      Clock.systemUTC(),
+      metrics
+    );
+    FailureThrottle throttle = new FailureThrottle(configuration);
+    CesTokenGenerator generator = new CesTokenGenerator(HEADER, metrics, TrustedNetworks.localhost(), throttle);
+    securityManager = new DefaultWebSecurityManager(
+      new CesTokenRealm(validator, metrics, TrustedNetworks.localhost(), throttle)
+    );
+
+    server = new Server();
+    ServerConnector connector = new ServerConnector(server);
+    connector.setHost("127.0.0.1");
+    connector.setPort(0);
+    server.addConnector(connector);
+    ServletContextHandler context = new ServletContextHandler();
+    context.addServlet(new ServletHolder(new LoginServlet(generator)), "/*");
+    server.setHandler(context);
+    server.start();
+    uri = URI.create("http://127.0.0.1:" + connector.getLocalPort() + "/api/v2/me");
+  }
+
+  private LoadReport run(String name, int clients, int requestsPerClient, String token) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(clients);
+    try {
+      CyclicBarrier start = new CyclicBarrier(clients);
+      HttpRequest request = HttpRequest.newBuilder(uri).header(HEADER, token).build();
+      List<Future<long[][]>> results = new ArrayList<>();
+      for (int i = 0; i < clients; ++i) {
+        results.add(executor.submit(() -> {
+          long[][] measurements = new long[requestsPerClient][];
+          start.await();
+          for (int j = 0; j < requestsPerClient; ++j) {
+            long begin = System.nanoTime();
+            int status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+            measurements[j] = new long[]{System.nanoTime() - begin, status};
+          }
+          return measurements;
+        }));
+      }
+      long begin = System.nanoTime();
+      LoadReport report = new LoadReport(clients * requestsPerClient);
+      for (Future<long[][]> result : results) {
+        for (long[] measurement : result.get(2, TimeUnit.MINUTES)) {
+          report.add(measurement[0], (int) measurement[1]);
+        }
+      }
+      report.finish(System.nanoTime() - begin);
+      System.out.printf("%s: %s, %d doguctl calls%n", name, report, spawns());
+      return report;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private long spawns() throws IOException {
+    Path spawns = directory.resolve("spawns");
+    if (!Files.exists(spawns)) {
+      return 0;
+    }
+    return Files.readAllLines(spawns).size();
+  }
+
+  /**
+   * Authenticates every request like the authentication filter of SCM-Manager and answers with 200 for
+   * authenticated requests, 503 if the token is not available and 401 otherwise.
+   */
+  private class LoginServlet extends HttpServlet {
+
+    private final CesTokenGenerator generator;
+
+    LoginServlet(CesTokenGenerator generator) {
+      this.generator = generator;
+    }
+
+    @Override
+    protected void service(HttpServletRequest request, HttpServletResponse response) {
+      CesToken token = generator.createToken(request);
+      if (token == null) {
+        response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+        return;
+      }
+      Subject subject = new WebSubject.Builder(securityManager, request, response).buildWebSubject();
+      try {
+        subject.login(token);
+        response.setStatus(HttpServletResponse.SC_OK);
+      } catch (TokenUnavailableException e) {
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+      } catch (AuthenticationException e) {
+        response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+      }
+    }
+  }
+
+  private static class LoadReport {
+
+    private final long[] latencies;
+    private final Map<Integer, Integer> statuses = new HashMap<>();
+    private int size;
+    private long duration;
+
+    LoadReport(int capacity) {
+      this.latencies = new long[capacity];
+    }
+
+    void add(long latency, int status) {
+      latencies[size++] = latency;
+      statuses.merge(status, 1, Integer::sum);
+    }
+
+    void finish(long duration) {
+      this.duration = duration;
+      Arrays.sort(latencies, 0, size);
+    }
+
+    int count(int status) {
+      return statuses.getOrDefault(status, 0);
+    }
+
+    long percentile(int percentile) {
+      int index = (int) Math.ceil(percentile / 100.0 * size) - 1;
+      return latencies[Math.max(index, 0)];
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+        "%d requests, p50 %.2f ms, p99 %.2f ms, %.0f requests/s, status %s",
+        size,
+        percentile(50) / 1_000_000.0,
+        percentile(99) / 1_000_000.0,
+        size / (duration / 1_000_000_000.0),
+        statuses
+      );
+    }
+  }
+}
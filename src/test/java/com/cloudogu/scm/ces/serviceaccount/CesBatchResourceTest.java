@@ -0,0 +1,84 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import org.apache.shiro.authz.AuthorizationException;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.util.ThreadContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class CesBatchResourceTest {
+
+  @Mock
+  private UserBatchProcessor processor;
+  @Mock
+  private Subject subject;
+
+  private CesBatchResource resource;
+
+  @BeforeEach
+  void setUpResource() {
+    ThreadContext.bind(subject);
+    resource = new CesBatchResource(processor);
+  }
+
+  @AfterEach
+  void unbindSubject() {
+    ThreadContext.unbindSubject();
+  }
+
+  @Test
+  void shouldProcessBatchOfServiceAccount() {
+    when(subject.getPrincipals()).thenReturn(ServiceAccounts.createDefault("token").getAuthenticationInfo().getPrincipals());
+    UserBatchRequest request = new UserBatchRequest();
+    UserBatchResult result = new UserBatchResult(Collections.emptyList());
+    when(processor.process(request)).thenReturn(result);
+
+    assertThat(resource.processUsers(request)).isSameAs(result);
+  }
+
+  @Test
+  void shouldRejectBatchOfOtherUsers() {
+    when(subject.getPrincipals()).thenReturn(new SimplePrincipalCollection("trillian", "default"));
+    UserBatchRequest request = new UserBatchRequest();
+
+    assertThrows(AuthorizationException.class, () -> resource.processUsers(request));
+    verifyNoInteractions(processor);
+  }
+}
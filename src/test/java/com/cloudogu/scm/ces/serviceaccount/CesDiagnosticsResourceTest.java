@@ -0,0 +1,140 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import org.apache.shiro.authz.AuthorizationException;
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.util.ThreadContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import javax.ws.rs.core.Response;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class CesDiagnosticsResourceTest {
+
+  @Mock
+  private CesAccessValidator validator;
+  @Mock
+  private Subject subject;
+
+  private final CesMetrics metrics = CesMetrics.inMemory();
+
+  private CesDiagnosticsResource resource;
+
+  @BeforeEach
+  void setUpResource() {
+    ThreadContext.bind(subject);
+    resource = new CesDiagnosticsResource(validator, metrics);
+  }
+
+  @AfterEach
+  void unbindSubject() {
+    ThreadContext.unbindSubject();
+  }
+
+  @Test
+  void shouldReturnSnapshotOfLoadedToken() {
+    when(validator.getLoadedAt()).thenReturn(Instant.parse("2021-10-06T10:00:00Z"));
+    when(validator.getSourceName()).thenReturn("doguctl");
+    when(validator.getLoadCount()).thenReturn(3L);
+    when(validator.getMismatchReloadCount()).thenReturn(1L);
+    when(validator.getBackoffCount()).thenReturn(2L);
+    metrics.load("doguctl", true, 1_500_000);
+    metrics.doguctlExit(0);
+
+    CesDiagnostics diagnostics = resource.get();
+
+    assertThat(diagnostics.isTokenLoaded()).isTrue();
+    assertThat(diagnostics.getLoadedAt()).isEqualTo("2021-10-06T10:00:00Z");
+    assertThat(diagnostics.getTokenSource()).isEqualTo("doguctl");
+    assertThat(diagnostics.getLastLoadSource()).isEqualTo("doguctl");
+    assertThat(diagnostics.getLastLoadSuccessful()).isTrue();
+    assertThat(diagnostics.getLastLoadDurationMillis()).isEqualTo(1.5);
+    assertThat(diagnostics.getLastExitCode()).isZero();
+    assertThat(diagnostics.getLoads()).isEqualTo(3);
+    assertThat(diagnostics.getMismatchReloads()).isEqualTo(1);
+    assertThat(diagnostics.getBackoffs()).isEqualTo(2);
+    assertThat(diagnostics.isBackingOff()).isFalse();
+  }
+
+  @Test
+  void shouldReturnBackoffAndRejections() {
+    when(validator.isBackingOff()).thenReturn(true);
+    when(validator.getFailure()).thenReturn(new TokenLoadFailure(2, Instant.parse("2021-10-06T10:01:00Z")));
+    metrics.validation(CesMetrics.Outcome.MISMATCH);
+    metrics.validation(CesMetrics.Outcome.MISMATCH);
+    metrics.validation(CesMetrics.Outcome.THROTTLED);
+
+    CesDiagnostics diagnostics = resource.get();
+
+    assertThat(diagnostics.isTokenLoaded()).isFalse();
+    assertThat(diagnostics.getLastLoadDurationMillis()).isNull();
+    assertThat(diagnostics.getLastExitCode()).isNull();
+    assertThat(diagnostics.isBackingOff()).isTrue();
+    assertThat(diagnostics.getConsecutiveFailures()).isEqualTo(2);
+    assertThat(diagnostics.getRetryAt()).isEqualTo("2021-10-06T10:01:00Z");
+    assertThat(diagnostics.getValidations())
+      .containsEntry("mismatch", 2L)
+      .containsEntry("throttled", 1L)
+      .containsEntry("ok", 0L);
+  }
+
+  @Test
+  void shouldRejectUsersWithoutReadPermission() {
+    doThrow(AuthorizationException.class).when(subject).checkPermission("configuration:read:ces");
+
+    assertThrows(AuthorizationException.class, () -> resource.get());
+    verifyNoInteractions(validator);
+  }
+
+  @Test
+  void shouldReload() {
+    Response response = resource.reload();
+
+    assertThat(response.getStatus()).isEqualTo(202);
+    verify(validator).reload();
+  }
+
+  @Test
+  void shouldRejectReloadWithoutWritePermission() {
+    doThrow(AuthorizationException.class).when(subject).checkPermission("configuration:write:ces");
+
+    assertThrows(AuthorizationException.class, () -> resource.reload());
+    verifyNoInteractions(validator);
+  }
+}
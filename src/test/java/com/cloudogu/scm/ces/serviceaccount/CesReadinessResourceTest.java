@@ -0,0 +1,99 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.security.AllowAnonymousAccess;
+
+import javax.ws.rs.core.Response;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class CesReadinessResourceTest {
+
+  @Mock
+  private CesAccessValidator validator;
+
+  private CesReadinessResource resource;
+
+  @BeforeEach
+  void setUpResource() {
+    resource = new CesReadinessResource(validator);
+  }
+
+  @Test
+  void shouldBeReadyWithLoadedToken() {
+    Instant loadedAt = Instant.parse("2020-11-05T10:00:00Z");
+    when(validator.isTokenAvailable()).thenReturn(true);
+    when(validator.getLoadedAt()).thenReturn(loadedAt);
+
+    Response response = resource.ready();
+
+    assertThat(response.getStatus()).isEqualTo(200);
+    CesReadiness readiness = (CesReadiness) response.getEntity();
+    assertThat(readiness.isReady()).isTrue();
+    assertThat(readiness.getLoadedAt()).isEqualTo("2020-11-05T10:00:00Z");
+    assertThat(readiness.isBackingOff()).isFalse();
+    verify(validator, never()).startLoading();
+  }
+
+  @Test
+  void shouldReportBackoffWhileTokenIsStillServed() {
+    when(validator.isTokenAvailable()).thenReturn(true);
+    when(validator.isBackingOff()).thenReturn(true);
+
+    Response response = resource.ready();
+
+    assertThat(response.getStatus()).isEqualTo(200);
+    CesReadiness readiness = (CesReadiness) response.getEntity();
+    assertThat(readiness.isBackingOff()).isTrue();
+  }
+
+  @Test
+  void shouldAllowAnonymousAccess() {
+    assertThat(CesReadinessResource.class.isAnnotationPresent(AllowAnonymousAccess.class)).isTrue();
+  }
+
+  @Test
+  void shouldNotBeReadyWithoutToken() {
+    Response response = resource.ready();
+
+    assertThat(response.getStatus()).isEqualTo(503);
+    assertThat(response.getHeaderString("Retry-After")).isEqualTo(CesTokenUnavailableFilter.RETRY_AFTER_SECONDS);
+    CesReadiness readiness = (CesReadiness) response.getEntity();
+    assertThat(readiness.isReady()).isFalse();
+    assertThat(readiness.getLoadedAt()).isNull();
+    verify(validator).startLoading();
+  }
+}
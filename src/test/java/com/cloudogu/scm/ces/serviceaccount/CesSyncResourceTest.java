@@ -0,0 +1,99 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import org.apache.shiro.authz.AuthorizationException;
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.util.ThreadContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class CesSyncResourceTest {
+
+  @Mock
+  private UserSync sync;
+  @Mock
+  private Subject subject;
+
+  private CesSyncResource resource;
+
+  @BeforeEach
+  void setUpResource() {
+    ThreadContext.bind(subject);
+    resource = new CesSyncResource(sync);
+  }
+
+  @AfterEach
+  void unbindSubject() {
+    ThreadContext.unbindSubject();
+  }
+
+  @Test
+  void shouldStreamUsersForServiceAccount() throws IOException {
+    when(subject.getPrincipals()).thenReturn(ServiceAccounts.createDefault("token").getAuthenticationInfo().getPrincipals());
+
+    Response response = resource.users(42L);
+
+    assertThat(response.getStatus()).isEqualTo(200);
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    ((StreamingOutput) response.getEntity()).write(output);
+    verify(sync).write(42L, output);
+  }
+
+  @Test
+  void shouldRejectOtherUsers() {
+    when(subject.getPrincipals()).thenReturn(new SimplePrincipalCollection("trillian", "default"));
+
+    assertThrows(AuthorizationException.class, () -> resource.users(42L));
+    verifyNoInteractions(sync);
+  }
+
+  @Test
+  void shouldRejectServiceAccountWithoutListPermission() {
+    when(subject.getPrincipals()).thenReturn(ServiceAccounts.createDefault("token").getAuthenticationInfo().getPrincipals());
+    doThrow(AuthorizationException.class).when(subject).checkPermission("user:list");
+
+    assertThrows(AuthorizationException.class, () -> resource.users(42L));
+    verifyNoInteractions(sync);
+  }
+}
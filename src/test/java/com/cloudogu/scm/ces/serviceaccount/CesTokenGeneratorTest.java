@@ -24,6 +24,7 @@
 
 package com.cloudogu.scm.ces.serviceaccount;
 
+import org.apache.shiro.subject.support.DefaultSubjectContext;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
@@ -32,6 +33,7 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import javax.servlet.http.HttpServletRequest;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -50,11 +52,52 @@ class CesTokenGeneratorTest {
 
     assertThat(token.getRemoteAddress()).isEqualTo("127.0.0.1");
     assertThat(token.getCredentials()).isEqualTo("secret");
+    assertThat(token.isRememberMe()).isFalse();
+  }
+
+  @Test
+  void shouldDisableSessionCreationForCesRequests() {
+    CesTokenGenerator cesTokenGenerator = new CesTokenGenerator("X-CES-Token");
+    when(request.getHeader("X-CES-Token")).thenReturn("secret");
+    when(request.getRemoteAddr()).thenReturn("127.0.0.1");
+
+    cesTokenGenerator.createToken(request);
+
+    verify(request).setAttribute(DefaultSubjectContext.SESSION_CREATION_ENABLED, Boolean.FALSE);
+  }
+
+  @Test
+  void shouldIgnoreTokenFromUntrustedAddress() {
+    CesMetrics metrics = CesMetrics.inMemory();
+    CesTokenGenerator cesTokenGenerator = new CesTokenGenerator("X-CES-Token", metrics);
+    when(request.getHeader("X-CES-Token")).thenReturn("secret");
+    when(request.getRemoteAddr()).thenReturn("192.168.2.1");
+
+    CesToken token = cesTokenGenerator.createToken(request);
+
+    assertThat(token).isNull();
+    assertThat(metrics.getValidations(CesMetrics.Outcome.UNTRUSTED_ADDRESS)).isEqualTo(1);
+  }
+
+  @Test
+  void shouldIgnoreThrottledToken() {
+    CesMetrics metrics = CesMetrics.inMemory();
+    FailureThrottle throttle = new FailureThrottle(new CesConfiguration(name -> "CES_TOKEN_FAILURE_THRESHOLD".equals(name) ? "2" : null));
+    CesTokenGenerator cesTokenGenerator = new CesTokenGenerator("X-CES-Token", metrics, TrustedNetworks.localhost(), throttle);
+    when(request.getHeader("X-CES-Token")).thenReturn("wrong");
+    when(request.getRemoteAddr()).thenReturn("127.0.0.1");
+
+    throttle.recordFailure("127.0.0.1", "wrong");
+    assertThat(cesTokenGenerator.createToken(request)).isNotNull();
+
+    throttle.recordFailure("127.0.0.1", "wrong");
+    assertThat(cesTokenGenerator.createToken(request)).isNull();
+    assertThat(metrics.getValidations(CesMetrics.Outcome.THROTTLED)).isEqualTo(1);
   }
 
   @Test
   void shouldFailIfHeaderNameNotDefined() {
-    CesTokenGenerator cesTokenGenerator = new CesTokenGenerator(null);
+    CesTokenGenerator cesTokenGenerator = new CesTokenGenerator((String) null);
 
     CesToken token = cesTokenGenerator.createToken(request);
 
@@ -27,37 +27,81 @@ package com.cloudogu.scm.ces.serviceaccount;
 import org.apache.shiro.authc.AuthenticationException;
 import org.apache.shiro.authc.AuthenticationInfo;
 import org.apache.shiro.authz.AuthorizationInfo;
+import org.apache.shiro.authz.permission.WildcardPermission;
+import org.apache.shiro.subject.MutablePrincipalCollection;
 import org.apache.shiro.subject.PrincipalCollection;
 import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import sonia.scm.user.User;
 
-import static com.cloudogu.scm.ces.serviceaccount.CesTokenRealm.MARKER;
 import static com.cloudogu.scm.ces.serviceaccount.CesTokenRealm.REALM;
+import static java.util.Arrays.asList;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
 class CesTokenRealmTest {
 
   @Mock
   private CesAccessValidator validator;
-  @InjectMocks
+  @Mock
+  private CesMetrics metrics;
+  @Mock
+  private FailureThrottle throttle;
+
+  private final ServiceAccount account = ServiceAccounts.createDefault("token");
+  private final ServiceAccount redmine = new ServiceAccount(
+    "redmine", "Redmine", "redmine_token", asList("user:list", "user:read:*")
+  );
+
   private CesTokenRealm realm;
 
+  @BeforeEach
+  void setUpRealm() {
+    realm = new CesTokenRealm(validator, metrics, TrustedNetworks.localhost(), throttle);
+  }
+
   @Test
   void shouldCreateAuthenticationInfo() {
+    when(validator.checkToken("secret")).thenReturn(account);
+
     AuthenticationInfo authenticationInfo = realm.doGetAuthenticationInfo(new CesToken("secret", "127.0.0.1"));
 
     PrincipalCollection principals = authenticationInfo.getPrincipals();
 
     assertThat(principals.oneByType(User.class)).isNotNull();
-    assertThat(principals.oneByType(CesTokenRealm.CesTokenRealmMarker.class)).isSameAs(MARKER);
+    assertThat(principals.oneByType(ServiceAccount.class)).isSameAs(account);
+  }
+
+  @Test
+  void shouldCreateAuthenticationInfoForMatchingAccount() {
+    when(validator.checkToken("redmine-secret")).thenReturn(redmine);
+
+    AuthenticationInfo authenticationInfo = realm.doGetAuthenticationInfo(new CesToken("redmine-secret", "127.0.0.1"));
+
+    PrincipalCollection principals = authenticationInfo.getPrincipals();
+    assertThat(principals.getPrimaryPrincipal()).isEqualTo("redmine");
+    assertThat(principals.oneByType(User.class).getName()).isEqualTo("redmine");
+  }
+
+  @Test
+  void shouldReuseImmutableAuthenticationInfo() {
+    when(validator.checkToken("secret")).thenReturn(account);
+
+    AuthenticationInfo first = realm.doGetAuthenticationInfo(new CesToken("secret", "127.0.0.1"));
+    AuthenticationInfo second = realm.doGetAuthenticationInfo(new CesToken("secret", "127.0.0.1"));
+
+    assertThat(second).isSameAs(first);
+    assertThat(first.getPrincipals()).isNotInstanceOf(MutablePrincipalCollection.class);
+    assertThat(first.getPrincipals().getPrimaryPrincipal()).isEqualTo("ces-service-account");
   }
 
   @Test
@@ -69,19 +113,46 @@ class CesTokenRealmTest {
   }
 
   @Test
-  void shouldFailForAuthenticationInfoIfNotLocalHost() {
+  void shouldRecordFailureForInvalidToken() {
+    doThrow(InvalidTokenException.INSTANCE).when(validator).checkToken("wrong");
+
+    CesToken token = new CesToken("wrong", "127.0.0.1");
+    assertThrows(InvalidTokenException.class, () -> realm.doGetAuthenticationInfo(token));
+    verify(throttle).recordFailure("127.0.0.1", "wrong");
+  }
+
+  @Test
+  void shouldRecordSuccessForValidToken() {
+    when(validator.checkToken("secret")).thenReturn(account);
+
+    realm.doGetAuthenticationInfo(new CesToken("secret", "127.0.0.1"));
+
+    verify(throttle).recordSuccess("127.0.0.1", "secret");
+  }
+
+  @Test
+  void shouldFailForAuthenticationInfoIfAddressIsNotTrusted() {
     CesToken token = new CesToken("secret", "192.167.2.1");
 
     AuthenticationInfo authenticationInfo = realm.doGetAuthenticationInfo(token);
 
     assertThat(authenticationInfo).isNull();
+    verify(metrics).validation(CesMetrics.Outcome.UNTRUSTED_ADDRESS);
+    verifyNoInteractions(validator);
+  }
+
+  @Test
+  void shouldAcceptTokenFromIpv6Loopback() {
+    when(validator.checkToken("secret")).thenReturn(account);
+
+    AuthenticationInfo authenticationInfo = realm.doGetAuthenticationInfo(new CesToken("secret", "0:0:0:0:0:0:0:1"));
+
+    assertThat(authenticationInfo).isNotNull();
   }
 
   @Test
   void shouldCreateAuthorizationInfo() {
-    SimplePrincipalCollection principals = new SimplePrincipalCollection("ces-service-account", REALM);
-    principals.add(MARKER, REALM);
-    principals.add(new User("ces-service-account", "CES Service Account User", null), REALM);
+    PrincipalCollection principals = account.getAuthenticationInfo().getPrincipals();
 
     AuthorizationInfo authorizationInfo = realm.doGetAuthorizationInfo(principals);
 
@@ -97,7 +168,48 @@ class CesTokenRealmTest {
   }
 
   @Test
-  void shouldFailForAuthorizationInfoWithWrongMarker() {
+  void shouldShareAuthorizationInfo() {
+    when(validator.checkToken("secret")).thenReturn(account);
+    PrincipalCollection principals = realm.doGetAuthenticationInfo(new CesToken("secret", "127.0.0.1")).getPrincipals();
+
+    assertThat(realm.doGetAuthorizationInfo(principals)).isSameAs(realm.doGetAuthorizationInfo(principals));
+  }
+
+  @Test
+  void shouldCheckPermissionsOfServiceAccount() {
+    when(validator.checkToken("secret")).thenReturn(account);
+    PrincipalCollection principals = realm.doGetAuthenticationInfo(new CesToken("secret", "127.0.0.1")).getPrincipals();
+
+    assertThat(realm.isPermitted(principals, "user:read:trillian")).isTrue();
+    assertThat(realm.isPermitted(principals, "user:delete:trillian")).isTrue();
+    assertThat(realm.isPermitted(principals, "permission:assign")).isTrue();
+    assertThat(realm.isPermitted(principals, "user:modify:trillian")).isFalse();
+    assertThat(realm.isPermitted(principals, "repository:read:*")).isFalse();
+    assertThat(realm.isPermitted(principals, new WildcardPermission("user:list"))).isTrue();
+  }
+
+  @Test
+  void shouldCheckPermissionsPerAccount() {
+    PrincipalCollection principals = redmine.getAuthenticationInfo().getPrincipals();
+
+    assertThat(realm.isPermitted(principals, "user:read:trillian")).isTrue();
+    assertThat(realm.isPermitted(principals, "user:list")).isTrue();
+    assertThat(realm.isPermitted(principals, "user:delete:trillian")).isFalse();
+    assertThat(realm.isPermitted(principals, "permission:assign")).isFalse();
+    assertThat(realm.doGetAuthorizationInfo(principals).getStringPermissions())
+      .containsExactly("user:list", "user:read:*");
+  }
+
+  @Test
+  void shouldNotGrantPermissionsToOtherPrincipals() {
+    SimplePrincipalCollection principals = new SimplePrincipalCollection("trillian", "other");
+
+    assertThat(realm.isPermitted(principals, "user:list")).isFalse();
+    assertThat(realm.isPermitted(principals, new WildcardPermission("user:list"))).isFalse();
+  }
+
+  @Test
+  void shouldFailForAuthorizationInfoWithoutServiceAccount() {
     SimplePrincipalCollection principals = new SimplePrincipalCollection("ces-service-account", REALM);
     principals.add(new User("ces-service-account", "CES Service Account User", null), REALM);
 
@@ -0,0 +1,108 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class CesTokenUnavailableFilterTest {
+
+  @Mock
+  private CesAccessValidator validator;
+  @Mock
+  private HttpServletRequest request;
+  @Mock
+  private HttpServletResponse response;
+  @Mock
+  private FilterChain chain;
+
+  private final Map<String, String> environment = new HashMap<>();
+
+  @BeforeEach
+  void initEnvironment() {
+    environment.put("CES_TOKEN_HEADER", "X-CES-Token");
+  }
+
+  @Test
+  void shouldRejectCesRequestWithoutTokenInFailFastMode() throws IOException, ServletException {
+    environment.put("CES_TOKEN_STARTUP_MODE", "fail-fast");
+    when(request.getHeader("X-CES-Token")).thenReturn("secret");
+
+    createFilter().doFilter(request, response, chain);
+
+    verify(response).sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "ces token is not available yet");
+    verify(response).setHeader("Retry-After", CesTokenUnavailableFilter.RETRY_AFTER_SECONDS);
+    verify(validator).startLoading();
+    verify(chain, never()).doFilter(request, response);
+  }
+
+  @Test
+  void shouldPassCesRequestWithLoadedTokenInFailFastMode() throws IOException, ServletException {
+    environment.put("CES_TOKEN_STARTUP_MODE", "fail-fast");
+    when(request.getHeader("X-CES-Token")).thenReturn("secret");
+    when(validator.isTokenAvailable()).thenReturn(true);
+
+    createFilter().doFilter(request, response, chain);
+
+    verify(chain).doFilter(request, response);
+  }
+
+  @Test
+  void shouldPassRequestsWithoutCesToken() throws IOException, ServletException {
+    environment.put("CES_TOKEN_STARTUP_MODE", "fail-fast");
+
+    createFilter().doFilter(request, response, chain);
+
+    verify(chain).doFilter(request, response);
+  }
+
+  @Test
+  void shouldPassCesRequestInBlockingMode() throws IOException, ServletException {
+    createFilter().doFilter(request, response, chain);
+
+    verify(chain).doFilter(request, response);
+    verify(validator, never()).startLoading();
+  }
+
+  private CesTokenUnavailableFilter createFilter() {
+    return new CesTokenUnavailableFilter(new CesConfiguration(environment::get), validator, CesMetrics.inMemory());
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DoguConfigTokenSourceTest {
+
+  @Test
+  void shouldReadTopLevelValue(@TempDir Path directory) throws IOException {
+    Path config = write(directory,
+      "# dogu config",
+      "ces_token: secret",
+      "other: value"
+    );
+
+    String token = new DoguConfigTokenSource(config).read("ces_token");
+
+    assertThat(token).isEqualTo("secret");
+  }
+
+  @Test
+  void shouldReadNestedValue(@TempDir Path directory) throws IOException {
+    Path config = write(directory,
+      "logging:",
+      "  root: INFO",
+      "serviceaccount:",
+      "  ces:",
+      "    token: \"secret:with:colons\"",
+      "  other: 'value'"
+    );
+
+    DoguConfigTokenSource source = new DoguConfigTokenSource(config);
+
+    assertThat(source.read("serviceaccount/ces/token")).isEqualTo("secret:with:colons");
+    assertThat(source.read("serviceaccount/other")).isEqualTo("value");
+  }
+
+  @Test
+  void shouldIgnoreCommentsAfterValues(@TempDir Path directory) throws IOException {
+    Path config = write(directory,
+      "serviceaccount: # accounts of other dogus",
+      "  token: secret # rotated by ces",
+      "  quoted: \"secret # not a comment\" # but this",
+      "  hash: se#cret",
+      "  unclosed: \"secret # comment"
+    );
+
+    DoguConfigTokenSource source = new DoguConfigTokenSource(config);
+
+    assertThat(source.read("serviceaccount/token")).isEqualTo("secret");
+    assertThat(source.read("serviceaccount/quoted")).isEqualTo("secret # not a comment");
+    assertThat(source.read("serviceaccount/hash")).isEqualTo("se#cret");
+    assertThrows(IOException.class, () -> source.read("serviceaccount/unclosed"));
+  }
+
+  @Test
+  void shouldFailForMissingKey(@TempDir Path directory) throws IOException {
+    Path config = write(directory, "other: value");
+    DoguConfigTokenSource source = new DoguConfigTokenSource(config);
+
+    assertThrows(IOException.class, () -> source.read("ces_token"));
+  }
+
+  @Test
+  void shouldFailForMissingFile(@TempDir Path directory) {
+    DoguConfigTokenSource source = new DoguConfigTokenSource(directory.resolve("config.yaml"));
+
+    assertThrows(IOException.class, () -> source.read("ces_token"));
+  }
+
+  private Path write(Path directory, String... lines) throws IOException {
+    return Files.write(directory.resolve("config.yaml"), Arrays.asList(lines));
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class FailureThrottleTest {
+
+  @Mock
+  private Clock clock;
+
+  private final AtomicLong now = new AtomicLong(1633514400000L);
+
+  private FailureThrottle throttle;
+
+  @BeforeEach
+  void initThrottle() {
+    when(clock.millis()).thenAnswer(invocation -> now.get());
+    throttle = new FailureThrottle(4, Duration.ofMinutes(1), 1024, clock);
+  }
+
+  @Test
+  void shouldThrottleAfterThreshold() {
+    for (int i = 0; i < 3; ++i) {
+      throttle.recordFailure("127.0.0.1", "wrong");
+    }
+    assertThat(throttle.isThrottled("127.0.0.1", "wrong")).isFalse();
+
+    throttle.recordFailure("127.0.0.1", "wrong");
+
+    assertThat(throttle.isThrottled("127.0.0.1", "wrong")).isTrue();
+  }
+
+  @Test
+  void shouldCountPerAddressAndToken() {
+    for (int i = 0; i < 4; ++i) {
+      throttle.recordFailure("127.0.0.1", "wrong");
+    }
+
+    assertThat(throttle.isThrottled("127.0.0.1", "secret")).isFalse();
+    assertThat(throttle.isThrottled("172.17.0.1", "wrong")).isFalse();
+  }
+
+  @Test
+  void shouldHalveCountsAfterDecay() {
+    for (int i = 0; i < 8; ++i) {
+      throttle.recordFailure("127.0.0.1", "wrong");
+    }
+
+    now.addAndGet(Duration.ofMinutes(1).toMillis());
+    assertThat(throttle.isThrottled("127.0.0.1", "wrong")).isTrue();
+
+    now.addAndGet(Duration.ofMinutes(1).toMillis());
+    assertThat(throttle.isThrottled("127.0.0.1", "wrong")).isFalse();
+
+    throttle.recordFailure("127.0.0.1", "wrong");
+    throttle.recordFailure("127.0.0.1", "wrong");
+    assertThat(throttle.isThrottled("127.0.0.1", "wrong")).isTrue();
+  }
+
+  @Test
+  void shouldForgetFailuresAfterLongDecay() {
+    for (int i = 0; i < 1000; ++i) {
+      throttle.recordFailure("127.0.0.1", "wrong");
+    }
+
+    now.addAndGet(Duration.ofHours(1).toMillis());
+
+    assertThat(throttle.isThrottled("127.0.0.1", "wrong")).isFalse();
+  }
+
+  @Test
+  void shouldResetAfterSuccess() {
+    for (int i = 0; i < 4; ++i) {
+      throttle.recordFailure("127.0.0.1", "secret");
+    }
+
+    throttle.recordSuccess("127.0.0.1", "secret");
+
+    assertThat(throttle.isThrottled("127.0.0.1", "secret")).isFalse();
+  }
+
+  @Test
+  void shouldNotBlockValidTokenSharingStripeWithBadToken() {
+    FailureThrottle single = new FailureThrottle(4, Duration.ofMinutes(1), 1, clock);
+    for (int i = 0; i < 4; ++i) {
+      single.recordFailure("127.0.0.1", "wrong");
+    }
+
+    assertThat(single.isThrottled("127.0.0.1", "wrong")).isTrue();
+    assertThat(single.isThrottled("127.0.0.1", "secret")).isFalse();
+  }
+
+  @Test
+  void shouldNotResetOtherTokenSharingStripeAfterSuccess() {
+    FailureThrottle single = new FailureThrottle(4, Duration.ofMinutes(1), 1, clock);
+    for (int i = 0; i < 4; ++i) {
+      single.recordFailure("127.0.0.1", "wrong");
+    }
+
+    single.recordSuccess("127.0.0.1", "secret");
+
+    assertThat(single.isThrottled("127.0.0.1", "wrong")).isTrue();
+  }
+
+  @Test
+  void shouldKeepThrottledTokenIfOtherTokenFailsOnSameStripe() {
+    FailureThrottle single = new FailureThrottle(4, Duration.ofMinutes(1), 1, clock);
+    for (int i = 0; i < 4; ++i) {
+      single.recordFailure("127.0.0.1", "wrong");
+    }
+
+    single.recordFailure("127.0.0.1", "other");
+
+    assertThat(single.isThrottled("127.0.0.1", "wrong")).isTrue();
+    assertThat(single.isThrottled("127.0.0.1", "other")).isFalse();
+  }
+
+  @Test
+  void shouldNeverThrottleKnownToken() {
+    FailureThrottle knowing = new FailureThrottle(4, Duration.ofMinutes(1), 1024, clock, "secret"::equals);
+    for (int i = 0; i < 4; ++i) {
+      knowing.recordFailure("127.0.0.1", "secret");
+    }
+
+    assertThat(knowing.isThrottled("127.0.0.1", "secret")).isFalse();
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FileTokenSourceTest {
+
+  @Test
+  void shouldReadTokenFromFile(@TempDir Path directory) throws IOException {
+    Files.write(directory.resolve("token"), "secret\n".getBytes(UTF_8));
+
+    String token = new FileTokenSource(directory).read("token");
+
+    assertThat(token).isEqualTo("secret");
+  }
+
+  @Test
+  void shouldFailForMissingFile(@TempDir Path directory) {
+    FileTokenSource source = new FileTokenSource(directory);
+
+    assertThrows(IOException.class, () -> source.read("token"));
+  }
+
+  @Test
+  void shouldFailForEmptyFile(@TempDir Path directory) throws IOException {
+    Files.write(directory.resolve("token"), "\n".getBytes(UTF_8));
+    FileTokenSource source = new FileTokenSource(directory);
+
+    assertThrows(IOException.class, () -> source.read("token"));
+  }
+
+  @Test
+  void shouldFailWithoutDirectory() {
+    FileTokenSource source = new FileTokenSource((Path) null);
+
+    assertThrows(IOException.class, () -> source.read("token"));
+  }
+}
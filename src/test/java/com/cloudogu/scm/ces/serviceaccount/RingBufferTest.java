@@ -0,0 +1,106 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RingBufferTest {
+
+  @Test
+  void shouldRoundCapacityToPowerOfTwo() {
+    assertThat(new RingBuffer<String>(1000).capacity()).isEqualTo(1024);
+    assertThat(new RingBuffer<String>(1024).capacity()).isEqualTo(1024);
+  }
+
+  @Test
+  void shouldDrainInOrder() {
+    RingBuffer<String> buffer = new RingBuffer<>(4);
+    buffer.offer("a");
+    buffer.offer("b");
+    buffer.offer("c");
+
+    List<String> drained = new ArrayList<>();
+    assertThat(buffer.drain(drained, 2)).isEqualTo(2);
+    assertThat(buffer.drain(drained, 2)).isEqualTo(1);
+
+    assertThat(drained).containsExactly("a", "b", "c");
+    assertThat(buffer.size()).isZero();
+  }
+
+  @Test
+  void shouldRejectElementsIfFull() {
+    RingBuffer<String> buffer = new RingBuffer<>(2);
+
+    assertThat(buffer.offer("a")).isTrue();
+    assertThat(buffer.offer("b")).isTrue();
+    assertThat(buffer.offer("c")).isFalse();
+
+    buffer.drain(new ArrayList<>(), 1);
+
+    assertThat(buffer.offer("d")).isTrue();
+    List<String> drained = new ArrayList<>();
+    buffer.drain(drained, 10);
+    assertThat(drained).containsExactly("b", "d");
+  }
+
+  @Test
+  void shouldNotLoseElementsOfConcurrentProducers() throws InterruptedException {
+    RingBuffer<Integer> buffer = new RingBuffer<>(64);
+    int producers = 4;
+    int elements = 10_000;
+    AtomicInteger rejected = new AtomicInteger();
+    CountDownLatch finished = new CountDownLatch(producers);
+    ExecutorService executor = Executors.newFixedThreadPool(producers);
+    for (int producer = 0; producer < producers; ++producer) {
+      executor.execute(() -> {
+        for (int i = 0; i < elements; ++i) {
+          if (!buffer.offer(i)) {
+            rejected.incrementAndGet();
+          }
+        }
+        finished.countDown();
+      });
+    }
+
+    List<Integer> drained = new ArrayList<>();
+    while (finished.getCount() > 0 || buffer.size() > 0) {
+      buffer.drain(drained, 16);
+    }
+    executor.shutdown();
+    assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+    assertThat(drained.size() + rejected.get()).isEqualTo(producers * elements);
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import org.apache.shiro.subject.SimplePrincipalCollection;
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.util.ThreadContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.HandlerEventType;
+import sonia.scm.security.AssignedPermission;
+import sonia.scm.security.AssignedPermissionEvent;
+import sonia.scm.user.User;
+import sonia.scm.user.UserEvent;
+
+import java.time.Clock;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ServiceAccountAuditorTest {
+
+  @Mock
+  private AuditTrail trail;
+  @Mock
+  private Clock clock;
+  @Mock
+  private Subject subject;
+
+  private ServiceAccountAuditor auditor;
+
+  @BeforeEach
+  void setUpAuditor() {
+    ThreadContext.bind(subject);
+    auditor = new ServiceAccountAuditor(trail, clock);
+  }
+
+  @AfterEach
+  void unbindSubject() {
+    ThreadContext.unbindSubject();
+  }
+
+  @Test
+  void shouldRecordUserChangesOfServiceAccount() {
+    when(subject.getPrincipals()).thenReturn(ServiceAccounts.createDefault("token").getAuthenticationInfo().getPrincipals());
+    when(clock.millis()).thenReturn(42L);
+
+    auditor.onUserEvent(new UserEvent(HandlerEventType.CREATE, new User("trillian")));
+
+    AuditEvent event = captureEvent();
+    assertThat(event.getTimestamp()).isEqualTo(42L);
+    assertThat(event.getAccount()).isEqualTo("ces-service-account");
+    assertThat(event.getAction()).isEqualTo("user.create");
+    assertThat(event.getTarget()).isEqualTo("trillian");
+    assertThat(event.getPermission()).isNull();
+  }
+
+  @Test
+  void shouldRecordPermissionChangesOfServiceAccount() {
+    when(subject.getPrincipals()).thenReturn(ServiceAccounts.createDefault("token").getAuthenticationInfo().getPrincipals());
+
+    auditor.onPermissionEvent(new AssignedPermissionEvent(
+      HandlerEventType.DELETE, new AssignedPermission("trillian", "repository:read:*")
+    ));
+
+    AuditEvent event = captureEvent();
+    assertThat(event.getAction()).isEqualTo("permission.delete");
+    assertThat(event.getTarget()).isEqualTo("trillian");
+    assertThat(event.getPermission()).isEqualTo("repository:read:*");
+  }
+
+  @Test
+  void shouldIgnorePreEvents() {
+    auditor.onUserEvent(new UserEvent(HandlerEventType.BEFORE_CREATE, new User("trillian")));
+
+    verifyNoInteractions(trail);
+  }
+
+  @Test
+  void shouldIgnoreChangesOfOtherSubjects() {
+    when(subject.getPrincipals()).thenReturn(new SimplePrincipalCollection("trillian", "default"));
+
+    auditor.onUserEvent(new UserEvent(HandlerEventType.DELETE, new User("dent")));
+
+    verifyNoInteractions(trail);
+  }
+
+  @Test
+  void shouldIgnoreChangesWithoutSubject() {
+    ThreadContext.unbindSubject();
+
+    auditor.onUserEvent(new UserEvent(HandlerEventType.DELETE, new User("dent")));
+
+    verifyNoInteractions(trail);
+  }
+
+  private AuditEvent captureEvent() {
+    ArgumentCaptor<AuditEvent> captor = ArgumentCaptor.forClass(AuditEvent.class);
+    verify(trail).record(captor.capture());
+    return captor.getValue();
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ServiceAccountsTest {
+
+  private final Map<String, String> environment = new HashMap<>();
+
+  @Test
+  void shouldCreateDefaultAccount() {
+    environment.put("CES_TOKEN_CONFIGURATION_KEY", "serviceaccount_token");
+
+    List<ServiceAccount> accounts = new ServiceAccounts(new CesConfiguration(environment::get)).getAll();
+
+    assertThat(accounts).hasSize(1);
+    ServiceAccount account = accounts.get(0);
+    assertThat(account.getName()).isEqualTo("ces-service-account");
+    assertThat(account.getConfigurationKey()).isEqualTo("serviceaccount_token");
+    assertThat(account.getAuthorizationInfo().getStringPermissions()).containsExactly(
+      "user:list", "user:create", "user:read:*", "user:delete:*", "permission:assign", "permission:read"
+    );
+  }
+
+  @Test
+  void shouldCreateConfiguredAccounts() {
+    environment.put("CES_TOKEN_CONFIGURATION_KEY", "serviceaccount_token");
+    environment.put("CES_SERVICE_ACCOUNTS", "redmine, easy-redmine");
+    environment.put("CES_SERVICE_ACCOUNT_REDMINE_KEY", "redmine_token");
+    environment.put("CES_SERVICE_ACCOUNT_REDMINE_PERMISSIONS", "user:list; user:read:*");
+    environment.put("CES_SERVICE_ACCOUNT_EASY_REDMINE_KEY", "easy_token");
+    environment.put("CES_SERVICE_ACCOUNT_EASY_REDMINE_PERMISSIONS", "user:read:*");
+
+    List<ServiceAccount> accounts = new ServiceAccounts(new CesConfiguration(environment::get)).getAll();
+
+    assertThat(accounts).hasSize(3);
+    ServiceAccount redmine = accounts.get(1);
+    assertThat(redmine.getName()).isEqualTo("redmine");
+    assertThat(redmine.getConfigurationKey()).isEqualTo("redmine_token");
+    assertThat(redmine.getAuthorizationInfo().getStringPermissions()).containsExactly("user:list", "user:read:*");
+    ServiceAccount easyRedmine = accounts.get(2);
+    assertThat(easyRedmine.getName()).isEqualTo("easy-redmine");
+    assertThat(easyRedmine.getConfigurationKey()).isEqualTo("easy_token");
+  }
+
+  @Test
+  void shouldIgnoreAccountsWithoutKey() {
+    environment.put("CES_SERVICE_ACCOUNTS", "redmine,jenkins");
+    environment.put("CES_SERVICE_ACCOUNT_JENKINS_KEY", "jenkins_token");
+
+    List<ServiceAccount> accounts = new ServiceAccounts(new CesConfiguration(environment::get)).getAll();
+
+    assertThat(accounts).hasSize(1);
+    assertThat(accounts.get(0).getName()).isEqualTo("jenkins");
+    assertThat(accounts.get(0).getAuthorizationInfo().getStringPermissions()).isEmpty();
+  }
+
+  @Test
+  void shouldIgnoreDuplicateAccounts() {
+    environment.put("CES_TOKEN_CONFIGURATION_KEY", "serviceaccount_token");
+    environment.put("CES_SERVICE_ACCOUNTS", "ces-service-account");
+    environment.put("CES_SERVICE_ACCOUNT_CES_SERVICE_ACCOUNT_KEY", "other_token");
+
+    List<ServiceAccount> accounts = new ServiceAccounts(new CesConfiguration(environment::get)).getAll();
+
+    assertThat(accounts).hasSize(1);
+    assertThat(accounts.get(0).getConfigurationKey()).isEqualTo("serviceaccount_token");
+  }
+
+  @Test
+  void shouldBeEmptyWithoutConfiguration() {
+    assertThat(new ServiceAccounts(new CesConfiguration(environment::get)).isEmpty()).isTrue();
+  }
+}
@@ -0,0 +1,206 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import org.apache.shiro.authz.permission.WildcardPermission;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class SignedTokenVerifierTest {
+
+  private static final String KEY = "signing-secret";
+
+  @Mock
+  private Clock clock;
+
+  private final AtomicReference<Instant> now = new AtomicReference<>(Instant.parse("2021-10-06T10:00:00Z"));
+  private final ServiceAccount account = ServiceAccounts.createDefault("token");
+  private final CesMetrics metrics = CesMetrics.inMemory();
+
+  private SignedTokenVerifier verifier;
+
+  @BeforeEach
+  void initVerifier() {
+    Map<String, String> environment = new HashMap<>();
+    environment.put("CES_SIGNED_TOKEN_MAX_LIFETIME", "1h");
+    environment.put("CES_SIGNED_TOKEN_REPLAY_CACHE_SIZE", "2");
+    verifier = new SignedTokenVerifier(
+      new ServiceAccounts(singletonList(account)), new CesConfiguration(environment::get), clock, metrics
+    );
+    verifier.setKey(KEY);
+  }
+
+  @Test
+  void shouldAcceptValidToken() {
+    when(clock.instant()).thenAnswer(invocation -> now.get());
+    String token = sign(Duration.ofMinutes(5), "", emptyList());
+
+    assertThat(verifier.isSigned(token)).isTrue();
+    assertThat(verifier.verify(token)).isSameAs(account);
+    assertThat(verifier.verify(token)).isSameAs(account);
+    assertThat(metrics.getValidations(CesMetrics.Outcome.OK)).isEqualTo(2);
+  }
+
+  @Test
+  void shouldNotTreatPlainTokensAsSigned() {
+    assertThat(verifier.isSigned("plain-token")).isFalse();
+  }
+
+  @Test
+  void shouldNotTreatTokensAsSignedWithoutKey() {
+    SignedTokenVerifier withoutKey = new SignedTokenVerifier(
+      new ServiceAccounts(singletonList(account)), new CesConfiguration(name -> null), clock, metrics
+    );
+
+    assertThat(withoutKey.isSigned(sign(Duration.ofMinutes(5), "", emptyList()))).isFalse();
+  }
+
+  @Test
+  void shouldRejectTokenWithOtherKey() {
+    String token = SignedTokenVerifier.sign("other", "ces-service-account", now.get().plusSeconds(60), "", emptyList());
+
+    assertThat(verifier.verify(token)).isNull();
+    assertThat(metrics.getValidations(CesMetrics.Outcome.MISMATCH)).isEqualTo(1);
+  }
+
+  @Test
+  void shouldRejectTamperedToken() {
+    String token = sign(Duration.ofMinutes(5), "", emptyList());
+    String tampered = SignedTokenVerifier.PREFIX
+      + SignedTokenVerifier.sign(KEY, "other", now.get().plusSeconds(60), "", emptyList()).split("\\.")[1]
+      + token.substring(token.lastIndexOf('.'));
+
+    assertThat(verifier.verify(tampered)).isNull();
+    assertThat(verifier.verify(token.substring(0, token.length() - 1))).isNull();
+    assertThat(verifier.verify(token + "A")).isNull();
+    assertThat(verifier.verify("ces1..")).isNull();
+    assertThat(verifier.verify("ces1.\u00e4." + token.substring(token.lastIndexOf('.') + 1))).isNull();
+  }
+
+  @Test
+  void shouldRejectExpiredToken() {
+    when(clock.instant()).thenAnswer(invocation -> now.get());
+    String token = sign(Duration.ofMinutes(5), "", emptyList());
+
+    now.set(now.get().plus(Duration.ofMinutes(5)));
+
+    assertThat(verifier.verify(token)).isNull();
+    assertThat(metrics.getValidations(CesMetrics.Outcome.EXPIRED)).isEqualTo(1);
+  }
+
+  @Test
+  void shouldRejectTokenExceedingMaximumLifetime() {
+    when(clock.instant()).thenAnswer(invocation -> now.get());
+    String token = sign(Duration.ofHours(2), "", emptyList());
+
+    assertThat(verifier.verify(token)).isNull();
+    assertThat(metrics.getValidations(CesMetrics.Outcome.EXPIRED)).isEqualTo(1);
+  }
+
+  @Test
+  void shouldRejectTokenOfUnknownAccount() {
+    when(clock.instant()).thenAnswer(invocation -> now.get());
+    String token = SignedTokenVerifier.sign(KEY, "unknown", now.get().plusSeconds(60), "", emptyList());
+
+    assertThat(verifier.verify(token)).isNull();
+  }
+
+  @Test
+  void shouldRejectReplayOfSingleUseToken() {
+    when(clock.instant()).thenAnswer(invocation -> now.get());
+    String token = sign(Duration.ofMinutes(5), "job-1", emptyList());
+
+    assertThat(verifier.verify(token)).isSameAs(account);
+    assertThat(verifier.verify(token)).isNull();
+    assertThat(metrics.getValidations(CesMetrics.Outcome.REPLAYED)).isEqualTo(1);
+  }
+
+  @Test
+  void shouldBoundReplayCache() {
+    when(clock.instant()).thenAnswer(invocation -> now.get());
+
+    assertThat(verifier.verify(sign(Duration.ofMinutes(1), "job-1", emptyList()))).isNotNull();
+    assertThat(verifier.verify(sign(Duration.ofMinutes(5), "job-2", emptyList()))).isNotNull();
+    assertThat(verifier.verify(sign(Duration.ofMinutes(5), "job-3", emptyList()))).isNull();
+
+    now.set(now.get().plus(Duration.ofMinutes(2)));
+
+    assertThat(verifier.verify(sign(Duration.ofMinutes(5), "job-3", emptyList()))).isNotNull();
+    assertThat(verifier.getReplayCacheSize()).isEqualTo(2);
+  }
+
+  @Test
+  void shouldRestrictAccountToScope() {
+    when(clock.instant()).thenAnswer(invocation -> now.get());
+    String token = sign(Duration.ofMinutes(5), "", asList("user:list", "user:read:trillian"));
+
+    ServiceAccount scoped = verifier.verify(token);
+
+    assertThat(scoped.getName()).isEqualTo("ces-service-account");
+    assertThat(scoped.getAuthorizationInfo().implies(new WildcardPermission("user:read:trillian"))).isTrue();
+    assertThat(scoped.getAuthorizationInfo().implies(new WildcardPermission("user:read:dent"))).isFalse();
+    assertThat(scoped.getAuthorizationInfo().implies(new WildcardPermission("user:create"))).isFalse();
+    assertThat(verifier.verify(token)).isSameAs(scoped);
+  }
+
+  @Test
+  void shouldRejectScopeExceedingAccount() {
+    when(clock.instant()).thenAnswer(invocation -> now.get());
+    String token = sign(Duration.ofMinutes(5), "", singletonList("repository:read:*"));
+
+    assertThat(verifier.verify(token)).isNull();
+  }
+
+  @Test
+  void shouldRejectTokensOfPreviousKey() {
+    String token = sign(Duration.ofMinutes(5), "", emptyList());
+
+    verifier.setKey("rotated");
+
+    assertThat(verifier.verify(token)).isNull();
+  }
+
+  private String sign(Duration lifetime, String nonce, Collection<String> scope) {
+    return SignedTokenVerifier.sign(KEY, "ces-service-account", now.get().plus(lifetime), nonce, scope);
+  }
+}
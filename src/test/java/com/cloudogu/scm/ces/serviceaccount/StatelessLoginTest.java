@@ -0,0 +1,166 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import org.apache.shiro.session.mgt.eis.SessionDAO;
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.web.mgt.DefaultWebSecurityManager;
+import org.apache.shiro.web.session.mgt.DefaultWebSessionManager;
+import org.apache.shiro.web.subject.WebSubject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Logs in many times with ces tokens through a Shiro web security manager and checks, that no session
+ * is created or kept, so that the memory usage stays flat under provisioning traffic.
+ */
+@ExtendWith(MockitoExtension.class)
+class StatelessLoginTest {
+
+  private static final int REQUESTS = 10_000;
+
+  @Mock
+  private CesAccessValidator validator;
+  @Mock
+  private HttpServletResponse response;
+
+  private final CesTokenGenerator generator = new CesTokenGenerator("X-CES-Token");
+
+  private DefaultWebSecurityManager securityManager;
+  private SessionDAO sessions;
+
+  @BeforeEach
+  void setUpSecurityManager() {
+    when(validator.checkToken("secret")).thenReturn(ServiceAccounts.createDefault("token"));
+    DefaultWebSessionManager sessionManager = new DefaultWebSessionManager();
+    sessions = sessionManager.getSessionDAO();
+    securityManager = new DefaultWebSecurityManager(
+      new CesTokenRealm(
+        validator, CesMetrics.inMemory(), TrustedNetworks.localhost(), new FailureThrottle(new CesConfiguration(name -> null))
+      )
+    );
+    securityManager.setSessionManager(sessionManager);
+  }
+
+  @AfterEach
+  void destroySecurityManager() {
+    securityManager.destroy();
+  }
+
+  @Test
+  void shouldNotCreateSessionsForCesLogins() {
+    int httpSessions = 0;
+    for (int i = 0; i < REQUESTS; ++i) {
+      CesRequest request = new CesRequest();
+      login(request);
+      httpSessions += request.sessionRequests;
+    }
+
+    assertThat(sessions.getActiveSessions()).isEmpty();
+    assertThat(httpSessions).isZero();
+  }
+
+  @Test
+  void shouldCreateSessionsIfSessionCreationIsNotDisabled() {
+    CesRequest request = new CesRequest();
+    WebSubject subject = new WebSubject.Builder(securityManager, request, response).buildWebSubject();
+
+    subject.login(new CesToken("secret", "127.0.0.1"));
+
+    assertThat(sessions.getActiveSessions()).hasSize(1);
+  }
+
+  private void login(CesRequest request) {
+    CesToken token = generator.createToken(request);
+    Subject subject = new WebSubject.Builder(securityManager, request, response).buildWebSubject();
+    subject.login(token);
+    assertThat(subject.isAuthenticated()).isTrue();
+    assertThat(subject.getSession(false)).isNull();
+  }
+
+  private static class CesRequest extends HttpServletRequestWrapper {
+
+    private final Map<String, Object> attributes = new HashMap<>();
+    private int sessionRequests;
+
+    CesRequest() {
+      super(mock(HttpServletRequest.class));
+    }
+
+    @Override
+    public String getHeader(String name) {
+      return "X-CES-Token".equals(name) ? "secret" : null;
+    }
+
+    @Override
+    public String getRemoteAddr() {
+      return "127.0.0.1";
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+      return attributes.get(name);
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+      attributes.put(name, value);
+    }
+
+    @Override
+    public void removeAttribute(String name) {
+      attributes.remove(name);
+    }
+
+    @Override
+    public HttpSession getSession() {
+      ++sessionRequests;
+      return super.getSession();
+    }
+
+    @Override
+    public HttpSession getSession(boolean create) {
+      if (create) {
+        ++sessionRequests;
+      }
+      return super.getSession(create);
+    }
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TokenDigestTest {
+
+  @Test
+  void shouldComputeDigestOfUtf8Bytes() throws NoSuchAlgorithmException {
+    String[] tokens = {"", "s", "secret", "s\u00e4cr\u00ebt", "\u20ac-token", "token-\ud83d\ude80", "broken-\ud83d", "\ude80-broken"};
+    for (String token : tokens) {
+      byte[] expected = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+
+      assertThat(TokenDigest.of(token)).isEqualTo(expected);
+    }
+  }
+
+  @Test
+  void shouldComputeDigestOfLongTokens() throws NoSuchAlgorithmException {
+    String token = "\u00e4bc".repeat(10000);
+    byte[] expected = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+
+    assertThat(TokenDigest.of(token)).isEqualTo(expected);
+    assertThat(TokenDigest.of("short")).isEqualTo(TokenDigest.copyOf("short"));
+  }
+
+  @Test
+  void shouldReuseResultArray() {
+    byte[] first = TokenDigest.of("first");
+    byte[] second = TokenDigest.of("second");
+
+    assertThat(second).isSameAs(first);
+  }
+
+  @Test
+  void shouldCopyResult() {
+    byte[] first = TokenDigest.copyOf("first");
+    byte[] second = TokenDigest.copyOf("first");
+
+    assertThat(second).isNotSameAs(first).isEqualTo(first);
+  }
+
+  @Test
+  void shouldCompareDigests() {
+    assertThat(TokenDigest.isEqual(TokenDigest.copyOf("secret"), TokenDigest.copyOf("secret"))).isTrue();
+    assertThat(TokenDigest.isEqual(TokenDigest.copyOf("secret"), TokenDigest.copyOf("secret2"))).isFalse();
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import org.apache.shiro.authc.AuthenticationException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TokenFileWatcherTest {
+
+  @TempDir
+  Path directory;
+
+  private CesAccessValidator validator;
+  private TokenFileWatcher watcher;
+
+  @BeforeEach
+  void startWatcher() throws IOException {
+    Files.write(directory.resolve("token"), "first".getBytes(UTF_8));
+    Map<String, String> environment = new HashMap<>();
+    environment.put("CES_TOKEN_WATCH", "true");
+    environment.put("CES_TOKEN_WATCH_DEBOUNCE", "50ms");
+    CesConfiguration configuration = new CesConfiguration(environment::get);
+    validator = new CesAccessValidator(new FileTokenSource(directory), "token", configuration, Clock.systemUTC());
+    validator.startLoading().join();
+    watcher = new TokenFileWatcher(configuration, validator);
+    watcher.start();
+  }
+
+  @AfterEach
+  void stopWatcher() {
+    watcher.close();
+    validator.close();
+  }
+
+  @Test
+  void shouldReloadTokenWhenFileIsModified() throws IOException, InterruptedException {
+    Files.write(directory.resolve("token"), "second".getBytes(UTF_8));
+
+    assertThat(awaitToken("second")).isTrue();
+  }
+
+  @Test
+  void shouldReloadTokenWhenFileIsReplacedAtomically() throws IOException, InterruptedException {
+    Path temporary = Files.write(directory.resolve(".token.tmp"), "second".getBytes(UTF_8));
+    Files.move(temporary, directory.resolve("token"), ATOMIC_MOVE);
+
+    assertThat(awaitToken("second")).isTrue();
+  }
+
+  @Test
+  void shouldNotReloadTokenForOtherFilesInDirectory() throws IOException, InterruptedException {
+    Files.write(directory.resolve("other"), "unrelated".getBytes(UTF_8));
+    Files.write(directory.resolve(".token.swp"), "unrelated".getBytes(UTF_8));
+    Thread.sleep(500);
+
+    assertThat(validator.getLoadCount()).isEqualTo(1);
+
+    Files.write(directory.resolve("token"), "second".getBytes(UTF_8));
+    assertThat(awaitToken("second")).isTrue();
+  }
+
+  private boolean awaitToken(String token) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 30_000;
+    while (System.currentTimeMillis() < deadline) {
+      try {
+        validator.checkToken(token);
+        return true;
+      } catch (AuthenticationException e) {
+        Thread.sleep(50);
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TrustedNetworksTest {
+
+  @Test
+  void shouldTrustLoopbackAddressesByDefault() {
+    TrustedNetworks networks = new TrustedNetworks(new CesConfiguration(name -> null));
+
+    assertThat(networks.isTrusted("127.0.0.1")).isTrue();
+    assertThat(networks.isTrusted("::1")).isTrue();
+    assertThat(networks.isTrusted("0:0:0:0:0:0:0:1")).isTrue();
+    assertThat(networks.isTrusted("[::1]")).isTrue();
+    assertThat(networks.isTrusted("127.0.0.2")).isFalse();
+    assertThat(networks.isTrusted("192.168.2.1")).isFalse();
+    assertThat(networks.isTrusted("::2")).isFalse();
+  }
+
+  @Test
+  void shouldReadNetworksFromEnvironment() {
+    TrustedNetworks networks = new TrustedNetworks(new CesConfiguration(
+      name -> "CES_TRUSTED_NETWORKS".equals(name) ? " 10.0.0.0/8, fd00::/8 " : null
+    ));
+
+    assertThat(networks.isTrusted("10.42.0.7")).isTrue();
+    assertThat(networks.isTrusted("fd12:3456::1")).isTrue();
+    assertThat(networks.isTrusted("127.0.0.1")).isFalse();
+    assertThat(networks.isTrusted("fe80::1")).isFalse();
+  }
+
+  @Test
+  void shouldMatchIpv4Prefixes() {
+    TrustedNetworks networks = new TrustedNetworks(Arrays.asList("172.16.0.0/12", "192.168.2.17"));
+
+    assertThat(networks.isTrusted("172.16.0.1")).isTrue();
+    assertThat(networks.isTrusted("172.31.255.255")).isTrue();
+    assertThat(networks.isTrusted("172.32.0.0")).isFalse();
+    assertThat(networks.isTrusted("192.168.2.17")).isTrue();
+    assertThat(networks.isTrusted("192.168.2.18")).isFalse();
+  }
+
+  @Test
+  void shouldMatchIpv6Prefixes() {
+    TrustedNetworks networks = new TrustedNetworks(Collections.singletonList("2001:db8:abcd::/48"));
+
+    assertThat(networks.isTrusted("2001:db8:abcd:12::1")).isTrue();
+    assertThat(networks.isTrusted("2001:DB8:ABCD:ffff:ffff:ffff:ffff:ffff")).isTrue();
+    assertThat(networks.isTrusted("2001:db8:abce::1")).isFalse();
+    assertThat(networks.isTrusted("fe80::1%eth0")).isFalse();
+  }
+
+  @Test
+  void shouldMatchIpv4MappedAddressesAsIpv4() {
+    TrustedNetworks networks = TrustedNetworks.localhost();
+
+    assertThat(networks.isTrusted("::ffff:127.0.0.1")).isTrue();
+    assertThat(networks.isTrusted("::ffff:7f00:1")).isTrue();
+    assertThat(networks.isTrusted("::ffff:10.0.0.1")).isFalse();
+  }
+
+  @Test
+  void shouldTrustEverythingForZeroPrefix() {
+    TrustedNetworks networks = new TrustedNetworks(Arrays.asList("0.0.0.0/0", "::/0"));
+
+    assertThat(networks.isTrusted("8.8.8.8")).isTrue();
+    assertThat(networks.isTrusted("2001:4860:4860::8888")).isTrue();
+  }
+
+  @Test
+  void shouldIgnoreInvalidNetworks() {
+    TrustedNetworks networks = new TrustedNetworks(
+      Arrays.asList("localhost", "10.0.0.0/33", "10.0.0/8", "::1/x", "127.0.0.1/32")
+    );
+
+    assertThat(networks.isTrusted("10.0.0.1")).isFalse();
+    assertThat(networks.isTrusted("::1")).isFalse();
+    assertThat(networks.isTrusted("127.0.0.1")).isTrue();
+  }
+
+  @Test
+  void shouldRejectMalformedAddresses() {
+    TrustedNetworks networks = new TrustedNetworks(Arrays.asList("0.0.0.0/0", "::/0"));
+
+    assertThat(networks.isTrusted(null)).isFalse();
+    assertThat(networks.isTrusted("")).isFalse();
+    assertThat(networks.isTrusted("localhost")).isFalse();
+    assertThat(networks.isTrusted("256.0.0.1")).isFalse();
+    assertThat(networks.isTrusted("1.2.3")).isFalse();
+    assertThat(networks.isTrusted("1.2.3.4.5")).isFalse();
+    assertThat(networks.isTrusted("1::2::3")).isFalse();
+    assertThat(networks.isTrusted("1:2:3:4:5:6:7:8:9")).isFalse();
+    assertThat(networks.isTrusted("12345::1")).isFalse();
+    assertThat(networks.isTrusted(":1")).isFalse();
+    assertThat(networks.isTrusted("1:")).isFalse();
+  }
+}
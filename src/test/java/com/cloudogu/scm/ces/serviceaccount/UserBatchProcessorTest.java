@@ -0,0 +1,256 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import com.cloudogu.scm.ces.serviceaccount.UserBatchResult.Status;
+import org.apache.shiro.authc.credential.PasswordService;
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.util.ThreadContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.AlreadyExistsException;
+import sonia.scm.security.PermissionAssigner;
+import sonia.scm.security.PermissionDescriptor;
+import sonia.scm.user.User;
+import sonia.scm.user.UserManager;
+
+import javax.ws.rs.BadRequestException;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class UserBatchProcessorTest {
+
+  @Mock
+  private UserManager userManager;
+  @Mock
+  private PermissionAssigner permissionAssigner;
+  @Mock
+  private PasswordService passwordService;
+  @Mock
+  private Subject subject;
+
+  private final Map<String, String> environment = new HashMap<>();
+  private final Set<String> permissions = new HashSet<>();
+
+  private UserBatchProcessor processor;
+
+  @BeforeEach
+  void setUpProcessor() {
+    lenient().when(subject.isPermitted(anyString()))
+      .thenAnswer(invocation -> permissions.contains(invocation.<String>getArgument(0)));
+    ThreadContext.bind(subject);
+    environment.put("CES_BATCH_CHUNK_SIZE", "2");
+    processor = new UserBatchProcessor(userManager, permissionAssigner, passwordService, new CesConfiguration(environment::get));
+  }
+
+  @AfterEach
+  void unbindSubject() {
+    ThreadContext.unbindSubject();
+  }
+
+  @Test
+  void shouldCreateUsers() {
+    permit("user:create");
+    when(userManager.getDefaultType()).thenReturn("xml");
+    when(passwordService.encryptPassword("secret")).thenReturn("encrypted");
+
+    UserBatchResult result = processor.process(request(
+      create("trillian"), create("dent")
+    ));
+
+    assertThat(result.getSucceeded()).isEqualTo(2);
+    assertThat(result.getResults().get(0).getStatus()).isEqualTo(Status.CREATED);
+    ArgumentCaptor<User> users = ArgumentCaptor.forClass(User.class);
+    verify(userManager, times(2)).create(users.capture());
+    User trillian = users.getAllValues().get(0);
+    assertThat(trillian.getName()).isEqualTo("trillian");
+    assertThat(trillian.getPassword()).isEqualTo("encrypted");
+    assertThat(trillian.getType()).isEqualTo("xml");
+  }
+
+  @Test
+  void shouldCheckGlobalPermissionsOnlyOnce() {
+    permit("user:create");
+    when(userManager.getDefaultType()).thenReturn("xml");
+    when(passwordService.encryptPassword("secret")).thenReturn("encrypted");
+
+    processor.process(request(create("trillian"), create("dent"), create("marvin")));
+
+    verify(subject).isPermitted("user:create");
+    verify(subject).isPermitted("permission:assign");
+  }
+
+  @Test
+  void shouldReportConflictsAndContinue() {
+    permit("user:create");
+    when(userManager.getDefaultType()).thenReturn("xml");
+    when(passwordService.encryptPassword("secret")).thenReturn("encrypted");
+    when(userManager.create(any(User.class)))
+      .thenThrow(new AlreadyExistsException())
+      .thenReturn(new User("dent"));
+
+    UserBatchResult result = processor.process(request(create("trillian"), create("dent")));
+
+    assertThat(result.getResults().get(0).getStatus()).isEqualTo(Status.CONFLICT);
+    assertThat(result.getResults().get(1).getStatus()).isEqualTo(Status.CREATED);
+    assertThat(result.getFailed()).isEqualTo(1);
+  }
+
+  @Test
+  void shouldRejectCreationWithoutPermission() {
+    UserBatchResult result = processor.process(request(create("trillian")));
+
+    assertThat(result.getResults().get(0).getStatus()).isEqualTo(Status.FORBIDDEN);
+    verify(userManager, never()).create(any(User.class));
+  }
+
+  @Test
+  void shouldDeleteUsers() {
+    User trillian = new User("trillian");
+    when(userManager.get("trillian")).thenReturn(trillian);
+    when(userManager.get("marvin")).thenReturn(null);
+
+    UserBatchResult result = processor.process(request(delete("trillian"), delete("marvin")));
+
+    assertThat(result.getResults().get(0).getStatus()).isEqualTo(Status.DELETED);
+    assertThat(result.getResults().get(1).getStatus()).isEqualTo(Status.NOT_FOUND);
+    verify(userManager).delete(trillian);
+  }
+
+  @Test
+  void shouldAssignPermissions() {
+    permit("permission:assign");
+    when(userManager.get("trillian")).thenReturn(new User("trillian"));
+
+    UserBatchResult result = processor.process(request(assign("trillian", "repository:read:*", "user:list")));
+
+    assertThat(result.getResults().get(0).getStatus()).isEqualTo(Status.ASSIGNED);
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<Collection<PermissionDescriptor>> permissions = ArgumentCaptor.forClass(Collection.class);
+    verify(permissionAssigner).setPermissionsForUser(eq("trillian"), permissions.capture());
+    assertThat(permissions.getValue()).hasSize(2);
+  }
+
+  @Test
+  void shouldReportInvalidOperationsWithoutExecutingThem() {
+    UserBatchRequest.Operation withoutName = create(null);
+    UserBatchRequest.Operation withoutType = create("trillian");
+    withoutType.setType(null);
+
+    UserBatchResult result = processor.process(request(withoutName, withoutType, null));
+
+    assertThat(result.getResults()).hasSize(3);
+    assertThat(result.getResults().get(0).getStatus()).isEqualTo(Status.INVALID);
+    assertThat(result.getResults().get(1).getStatus()).isEqualTo(Status.INVALID);
+    assertThat(result.getResults().get(2).getStatus()).isEqualTo(Status.INVALID);
+    verify(userManager, never()).create(any(User.class));
+  }
+
+  @Test
+  void shouldSkipRemainingChunksAfterTimeout() {
+    Clock clock = mock(Clock.class);
+    when(clock.millis()).thenReturn(0L, 60_000L);
+    processor = new UserBatchProcessor(userManager, permissionAssigner, passwordService, new CesConfiguration(environment::get), clock);
+    when(userManager.get("trillian")).thenReturn(new User("trillian"));
+    when(userManager.get("dent")).thenReturn(new User("dent"));
+
+    UserBatchResult result = processor.process(request(delete("trillian"), delete("dent"), delete("marvin")));
+
+    assertThat(result.getResults()).hasSize(3);
+    assertThat(result.getResults().get(0).getStatus()).isEqualTo(Status.DELETED);
+    assertThat(result.getResults().get(1).getStatus()).isEqualTo(Status.DELETED);
+    assertThat(result.getResults().get(2).getStatus()).isEqualTo(Status.SKIPPED);
+    verify(userManager, never()).get("marvin");
+  }
+
+  @Test
+  void shouldRejectTooLargeBatches() {
+    environment.put("CES_BATCH_MAX_OPERATIONS", "2");
+    processor = new UserBatchProcessor(userManager, permissionAssigner, passwordService, new CesConfiguration(environment::get));
+
+    UserBatchRequest request = request(delete("trillian"), delete("dent"), delete("marvin"));
+
+    assertThrows(BadRequestException.class, () -> processor.process(request));
+  }
+
+  private void permit(String permission) {
+    permissions.add(permission);
+  }
+
+  private UserBatchRequest request(UserBatchRequest.Operation... operations) {
+    UserBatchRequest request = new UserBatchRequest();
+    request.setOperations(new ArrayList<>(asList(operations)));
+    return request;
+  }
+
+  private UserBatchRequest.Operation create(String name) {
+    UserBatchRequest.Operation operation = operation(UserBatchRequest.Type.CREATE, name);
+    operation.setDisplayName(name);
+    operation.setMail(name + "@hitchhiker.com");
+    operation.setPassword("secret");
+    return operation;
+  }
+
+  private UserBatchRequest.Operation delete(String name) {
+    return operation(UserBatchRequest.Type.DELETE, name);
+  }
+
+  private UserBatchRequest.Operation assign(String name, String... permissions) {
+    UserBatchRequest.Operation operation = operation(UserBatchRequest.Type.ASSIGN, name);
+    operation.setPermissions(asList(permissions));
+    return operation;
+  }
+
+  private UserBatchRequest.Operation operation(UserBatchRequest.Type type, String name) {
+    UserBatchRequest.Operation operation = new UserBatchRequest.Operation();
+    operation.setType(type);
+    operation.setName(name);
+    return operation;
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.HandlerEventType;
+import sonia.scm.security.AssignedPermission;
+import sonia.scm.security.AssignedPermissionEvent;
+import sonia.scm.user.User;
+import sonia.scm.user.UserEvent;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class UserSyncJournalTest {
+
+  private static final long START = 1633514400000L;
+
+  @Mock
+  private Clock clock;
+
+  private final AtomicLong now = new AtomicLong(START);
+
+  private UserSyncJournal journal;
+
+  @BeforeEach
+  void setUpJournal() {
+    when(clock.millis()).thenAnswer(invocation -> now.get());
+    journal = new UserSyncJournal(Duration.ofHours(1), clock);
+  }
+
+  @Test
+  void shouldRecordDeletedUsers() {
+    now.set(START + 100);
+    journal.onUserEvent(new UserEvent(HandlerEventType.DELETE, new User("trillian")));
+    now.set(START + 200);
+    journal.onUserEvent(new UserEvent(HandlerEventType.DELETE, new User("dent")));
+
+    assertThat(journal.getDeletionsSince(START)).containsOnly("trillian", "dent");
+    assertThat(journal.getDeletionsSince(START + 150)).containsExactly("dent");
+  }
+
+  @Test
+  void shouldIgnoreOtherUserEvents() {
+    journal.onUserEvent(new UserEvent(HandlerEventType.BEFORE_DELETE, new User("trillian")));
+    journal.onUserEvent(new UserEvent(HandlerEventType.MODIFY, new User("dent")));
+
+    assertThat(journal.getDeletionsSince(START)).isEmpty();
+  }
+
+  @Test
+  void shouldRecordPermissionChangesOfUsers() {
+    now.set(START + 100);
+    journal.onPermissionEvent(new AssignedPermissionEvent(
+      HandlerEventType.CREATE, new AssignedPermission("trillian", "user:read:*")
+    ));
+
+    assertThat(journal.isPermissionChangedSince("trillian", START)).isTrue();
+    assertThat(journal.isPermissionChangedSince("trillian", START + 101)).isFalse();
+    assertThat(journal.isPermissionChangedSince("dent", START)).isFalse();
+  }
+
+  @Test
+  void shouldIgnorePermissionChangesOfGroups() {
+    journal.onPermissionEvent(new AssignedPermissionEvent(
+      HandlerEventType.CREATE, new AssignedPermission("heart-of-gold", true, "user:read:*")
+    ));
+
+    assertThat(journal.isPermissionChangedSince("heart-of-gold", START)).isFalse();
+  }
+
+  @Test
+  void shouldNotCoverTimeBeforeStart() {
+    assertThat(journal.covers(START - 1)).isFalse();
+    assertThat(journal.covers(START)).isTrue();
+  }
+
+  @Test
+  void shouldNotCoverTimeBeyondRetention() {
+    journal.onUserEvent(new UserEvent(HandlerEventType.DELETE, new User("trillian")));
+    now.set(START + Duration.ofHours(2).toMillis());
+
+    assertThat(journal.covers(START + Duration.ofMinutes(30).toMillis())).isFalse();
+    assertThat(journal.covers(START + Duration.ofMinutes(90).toMillis())).isTrue();
+    assertThat(journal.getDeletionsSince(START)).isEmpty();
+  }
+}
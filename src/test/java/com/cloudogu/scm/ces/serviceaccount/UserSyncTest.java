@@ -0,0 +1,172 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020-present Cloudogu GmbH and Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.cloudogu.scm.ces.serviceaccount;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import sonia.scm.security.AssignedPermission;
+import sonia.scm.security.SecuritySystem;
+import sonia.scm.user.User;
+import sonia.scm.user.UserManager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class UserSyncTest {
+
+  private static final long NOW = 1633514400000L;
+
+  @Mock
+  private UserManager userManager;
+  @Mock
+  private SecuritySystem securitySystem;
+  @Mock
+  private UserSyncJournal journal;
+  @Mock
+  private Clock clock;
+
+  private UserSync sync;
+
+  @BeforeEach
+  void setUpSync() {
+    sync = new UserSync(userManager, securitySystem, journal, clock);
+  }
+
+  @Test
+  void shouldWriteAllUsersWithoutCursor() throws IOException {
+    when(clock.millis()).thenReturn(NOW);
+    when(userManager.getAll()).thenReturn(asList(user("trillian", 42L), user("dent", 21L)));
+    when(securitySystem.getPermissions(any()))
+      .thenReturn(singletonList(new AssignedPermission("trillian", "repository:read:*")));
+
+    List<String> lines = write(null);
+
+    assertThat(lines).containsExactly(
+      "{\"type\":\"reset\"}",
+      "{\"type\":\"user\",\"name\":\"trillian\",\"displayName\":\"Trillian\",\"mail\":\"trillian@hitchhiker.com\","
+        + "\"active\":true,\"external\":false,\"lastModified\":42,\"permissions\":[\"repository:read:*\"]}",
+      "{\"type\":\"user\",\"name\":\"dent\",\"displayName\":\"Dent\",\"mail\":\"dent@hitchhiker.com\","
+        + "\"active\":true,\"external\":false,\"lastModified\":21,\"permissions\":[]}",
+      "{\"type\":\"cursor\",\"cursor\":" + NOW + "}"
+    );
+  }
+
+  @Test
+  void shouldResetIfCursorIsNotCovered() throws IOException {
+    when(clock.millis()).thenReturn(NOW);
+    when(journal.covers(100L)).thenReturn(false);
+    when(userManager.getAll()).thenReturn(emptyList());
+
+    List<String> lines = write(100L);
+
+    assertThat(lines).containsExactly("{\"type\":\"reset\"}", "{\"type\":\"cursor\",\"cursor\":" + NOW + "}");
+  }
+
+  @Test
+  void shouldWriteOnlyChangesSinceCursor() throws IOException {
+    when(clock.millis()).thenReturn(NOW);
+    when(journal.covers(100L)).thenReturn(true);
+    when(journal.getDeletionsSince(100L)).thenReturn(singletonList("marvin"));
+    when(journal.isPermissionChangedSince("dent", 100L)).thenReturn(true);
+    when(journal.isPermissionChangedSince("slarti", 100L)).thenReturn(false);
+    when(userManager.getAll()).thenReturn(asList(user("trillian", 142L), user("dent", 42L), user("slarti", 42L)));
+    when(securitySystem.getPermissions(any())).thenReturn(emptyList());
+
+    List<String> lines = write(100L);
+
+    assertThat(lines).hasSize(4);
+    assertThat(lines.get(0)).isEqualTo("{\"type\":\"deleted\",\"name\":\"marvin\"}");
+    assertThat(lines.get(1)).startsWith("{\"type\":\"user\",\"name\":\"trillian\"");
+    assertThat(lines.get(2)).startsWith("{\"type\":\"user\",\"name\":\"dent\"");
+    assertThat(lines.get(3)).isEqualTo("{\"type\":\"cursor\",\"cursor\":" + NOW + "}");
+  }
+
+  @Test
+  void shouldReadPermissionsOncePerSync() throws IOException {
+    when(clock.millis()).thenReturn(NOW);
+    when(userManager.getAll()).thenReturn(asList(user("trillian", 42L), user("dent", 21L), user("slarti", 21L)));
+    when(securitySystem.getPermissions(any())).thenReturn(asList(
+      new AssignedPermission("dent", "repository:read:*"),
+      new AssignedPermission("trillian", "user:list"),
+      new AssignedPermission("dent", "group:list")
+    ));
+
+    List<String> lines = write(null);
+
+    assertThat(lines.get(1)).endsWith("\"permissions\":[\"user:list\"]}");
+    assertThat(lines.get(2)).endsWith("\"permissions\":[\"repository:read:*\",\"group:list\"]}");
+    assertThat(lines.get(3)).endsWith("\"permissions\":[]}");
+    verify(securitySystem, times(1)).getPermissions(any());
+  }
+
+  @Test
+  void shouldSkipGroupPermissions() throws IOException {
+    when(clock.millis()).thenReturn(NOW);
+    when(userManager.getAll()).thenReturn(emptyList());
+    when(securitySystem.getPermissions(any())).thenAnswer(invocation -> {
+      Predicate<AssignedPermission> predicate = invocation.getArgument(0);
+      assertThat(predicate.test(new AssignedPermission("trillian", false, "user:list"))).isTrue();
+      assertThat(predicate.test(new AssignedPermission("trillian", true, "user:list"))).isFalse();
+      return emptyList();
+    });
+
+    write(null);
+
+    verify(securitySystem).getPermissions(any());
+  }
+
+  private List<String> write(Long since) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    sync.write(since, output);
+    String content = output.toString(StandardCharsets.UTF_8.name());
+    assertThat(content).endsWith("\n");
+    return asList(content.split("\n"));
+  }
+
+  private User user(String name, long lastModified) {
+    String displayName = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    User user = new User(name, displayName, name + "@hitchhiker.com");
+    user.setCreationDate(1L);
+    user.setLastModified(lastModified);
+    return user;
+  }
+}
@@ -0,0 +1,24 @@
+#!/bin/sh
+#
+# Stand-in for "doguctl config --encrypted <key>" in load tests. The behaviour is read from files next to
+# the script on every call, so that tests can change it while the plugin is running:
+#
+#   token  value printed for every key
+#   delay  seconds to wait before answering, fractions are allowed
+#   fail   exit code to fail with instead of printing the token
+#
+# Every call appends its arguments to the file "spawns".
+
+dir=$(dirname "$0")
+echo "$*" >> "$dir/spawns"
+
+if [ -f "$dir/delay" ]; then
+  sleep "$(cat "$dir/delay")"
+fi
+
+if [ -f "$dir/fail" ]; then
+  echo "could not read config key $3" >&2
+  exit "$(cat "$dir/fail")"
+fi
+
+cat "$dir/token"